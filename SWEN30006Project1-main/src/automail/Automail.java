@@ -1,30 +1,75 @@
 package automail;
 
 import simulation.IMailDelivery;
+import simulation.SimulationContext;
+import util.Configuration;
 
 public class Automail {
 
     private Robot[] robots;
+    /** The fleet holding every robot's state in the arrays layout, null in the objects layout */
+    private final Fleet fleet;
     private MailPool mailPool;
+    private final SimulationContext context;
     
-    public Automail(MailPool mailPool, IMailDelivery delivery, int numRegRobots, int numFastRobots, int numBulkRobots) throws Exception{
+    public Automail(SimulationContext context, MailPool mailPool, IMailDelivery delivery, int numRegRobots, int numFastRobots, int numBulkRobots) throws Exception{
+        this(context, mailPool, delivery, new RobotSpec[] {RobotSpec.REGULAR, RobotSpec.FAST, RobotSpec.BULK},
+                new int[] {numRegRobots, numFastRobots, numBulkRobots});
+    }
+
+    /**
+     * @param types the robot types, in the order their robots are numbered
+     * @param counts the number of robots of each type
+     */
+    public Automail(SimulationContext context, MailPool mailPool, IMailDelivery delivery, RobotSpec[] types,
+                    int[] counts) throws Exception {
     	/** Initialize the MailPool */
     	
     	this.mailPool = mailPool;
+    	this.context = context;
     	
-    	/** Initialize robots, currently only regular robots */
-    	robots = new Robot[numRegRobots + numFastRobots + numBulkRobots];
-    	for (int i = 0; i < numRegRobots; i++) robots[i] = new RegularRobot(delivery, mailPool, i);
-        for (int i = numRegRobots; i < numRegRobots + numFastRobots; i++) robots[i] = new FastRobot(delivery, mailPool, i);
-        for (int i = numRegRobots + numFastRobots; i < numRegRobots+ numFastRobots + numBulkRobots; i++) robots[i] = new BulkRobot(delivery, mailPool, i);
-
+    	/** Initialize robots, type by type */
+    	int total = 0;
+    	for (int count : counts) total += count;
+    	robots = new Robot[total];
+    	boolean arrays = context.getConfiguration().getProperty(Configuration.FLEET_LAYOUT_KEY).equals("arrays");
+    	fleet = arrays ? new Fleet(total, context.getBuilding().getMailroomLocationFloor()) : null;
+    	int number = 0;
+    	for (int i = 0; i < types.length; i++) {
+    	    for (int j = 0; j < counts[i]; j++, number++) {
+    	        robots[number] = arrays ? new Robot(context, delivery, mailPool, number, types[i], fleet)
+    	                : new Robot(context, delivery, mailPool, number, types[i]);
+    	    }
+    	}
+    }
 
+    /**
+     * @return the robots given by the Robot_Types property and the number of robots of each type
+     */
+    public static Automail fromConfiguration(SimulationContext context, MailPool mailPool, IMailDelivery delivery)
+            throws Exception {
+        Configuration configuration = context.getConfiguration();
+        RobotSpec[] types = RobotSpec.fromConfiguration(configuration);
+        int[] counts = new int[types.length];
+        for (int i = 0; i < types.length; i++) counts[i] = configuration.getRobotCount(types[i].getName());
+        return new Automail(context, mailPool, delivery, types, counts);
     }
 
     public Robot[] getRobots() {
         return robots;
     }
 
+    /**
+     * @return the fleet holding every robot's state, or null if each robot holds its own
+     */
+    public Fleet getFleet() {
+        return fleet;
+    }
+
+    public SimulationContext getContext() {
+        return context;
+    }
+
     public MailPool getMailPool() {
         return mailPool;
     }
@@ -0,0 +1,258 @@
+package automail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Set;
+
+import exceptions.ItemTooHeavyException;
+import simulation.Clock;
+import simulation.SimulationContext;
+
+/**
+ * Holds robots of the held types, Bulk robots unless configured otherwise, in the mailroom until the pool can
+ * fill their tube, then hands the robots that are ready to another DispatchPolicy. A held robot is released as
+ * soon as one of these holds: the pool has at least minFill items within floorSpread floors of each other, the
+ * robot has been held for maxWait ticks, or the mail receiving window has closed so no more mail is coming.
+ * Other robots are never held. Each time a robot starts or stops being held it is reported to the run's event
+ * sink, so the hold can be journalled.
+ */
+public class BatchingDispatchPolicy implements DispatchPolicy {
+
+    public static final int NOT_HELD = -1;
+
+    private final DispatchPolicy policy;
+    private final SimulationContext context;
+    private final Clock clock;
+    private final int maxWait;
+    private final int minFill;
+    private final int floorSpread;
+    /** The names of the robot types that are held */
+    private final Set<String> heldTypes;
+
+    /** Robots released this tick, in registration order */
+    private final ArrayDeque<Robot> ready;
+    /** The tick each robot, by number, was first held at, NOT_HELD if it is not held */
+    private int[] heldSince;
+
+    private long trips;
+    private long items;
+    private long heldTicks;
+    private long timeouts;
+
+    /**
+     * @param policy the policy that loads the robots that are not held
+     * @param context the simulation run, whose clock times holds and whose event sink is told of them
+     * @param maxWait the most ticks a robot is held for
+     * @param minFill the number of items that releases a robot, capped at the robot's capacity
+     * @param floorSpread the most floors between the items counted towards minFill, negative for any
+     * @param heldTypes the names of the robot types that are held, e.g. Bulk
+     */
+    public BatchingDispatchPolicy(DispatchPolicy policy, SimulationContext context, int maxWait, int minFill,
+                                  int floorSpread, Set<String> heldTypes) {
+        this.policy = policy;
+        this.context = context;
+        this.clock = context.getClock();
+        this.maxWait = maxWait;
+        this.minFill = minFill;
+        this.floorSpread = floorSpread;
+        this.heldTypes = heldTypes;
+        this.ready = new ArrayDeque<Robot>();
+        this.heldSince = new int[0];
+    }
+
+    @Override
+    public void loadItemsToRobots(MailPool pool, ArrayDeque<Robot> waiting) throws ItemTooHeavyException {
+        int fill = -1;
+        for (int i = 0; i < waiting.size(); i++) {
+            /** Rotate through the queue once, as an iterator would allocate */
+            Robot robot = waiting.pollFirst();
+            waiting.addLast(robot);
+            if (isHeldType(robot)) {
+                if (fill < 0) {
+                    fill = bestFill(pool);
+                }
+                if (hold(robot, fill)) {
+                    heldTicks++;
+                    continue;
+                }
+            }
+            ready.add(robot);
+        }
+
+        if (!ready.isEmpty()) {
+            policy.loadItemsToRobots(pool, ready);
+            for (int i = waiting.size(); i > 0; i--) {
+                Robot robot = waiting.pollFirst();
+                if (!robot.getReceivedDispatch()) {
+                    waiting.addLast(robot);
+                } else if (isHeldType(robot)) {
+                    trips++;
+                    items += robot.getItemCount();
+                }
+            }
+            ready.clear();
+        }
+    }
+
+    private boolean isHeldType(Robot robot) {
+        return heldTypes.contains(robot.getSpec().getName());
+    }
+
+    /**
+     * @return true if the robot should keep waiting for more mail
+     */
+    private boolean hold(Robot robot, int fill) {
+        int time = clock.Time();
+        int number = robot.getNumber();
+        ensureRoom(number);
+        if (fill >= Math.min(minFill, robot.getCapacity()) || time >= clock.MAIL_RECEVING_LENGTH) {
+            setHeldSince(time, robot, NOT_HELD);
+            return false;
+        }
+        if (heldSince[number] == NOT_HELD) {
+            setHeldSince(time, robot, time);
+            return true;
+        }
+        if (time - heldSince[number] >= maxWait) {
+            setHeldSince(time, robot, NOT_HELD);
+            timeouts++;
+            return false;
+        }
+        return true;
+    }
+
+    private void setHeldSince(int time, Robot robot, int since) {
+        if (heldSince[robot.getNumber()] != since) {
+            heldSince[robot.getNumber()] = since;
+            context.getEventSink().holdChanged(time, robot, since);
+        }
+    }
+
+    private void ensureRoom(int number) {
+        if (number >= heldSince.length) {
+            int length = heldSince.length;
+            heldSince = Arrays.copyOf(heldSince, number + 1);
+            Arrays.fill(heldSince, length, heldSince.length, NOT_HELD);
+        }
+    }
+
+    /**
+     * @return the tick the robot, by number, has been held since, NOT_HELD if it is not held
+     */
+    public int getHeldSince(int number) {
+        return number < heldSince.length ? heldSince[number] : NOT_HELD;
+    }
+
+    /**
+     * Sets the tick a robot has been held since, as when resuming a run. Nothing is reported.
+     * @param number the number of the robot
+     * @param since the tick it was first held at, NOT_HELD if it is not held
+     */
+    public void restoreHeldSince(int number, int since) {
+        ensureRoom(number);
+        heldSince[number] = since;
+    }
+
+    /**
+     * Writes the tick each robot has been held since and the counters, as for a snapshot of the run
+     * @param robots the robots of the run, in the order their ticks are written
+     */
+    public void writeTo(DataOutput out, Robot[] robots) throws IOException {
+        out.writeInt(robots.length);
+        for (Robot robot : robots) out.writeInt(getHeldSince(robot.getNumber()));
+        out.writeLong(trips);
+        out.writeLong(items);
+        out.writeLong(heldTicks);
+        out.writeLong(timeouts);
+    }
+
+    /**
+     * Replaces the held robots and the counters with those written by writeTo(). Nothing is reported.
+     * @param counterparts the robot taking the place of each robot written, null where there is none
+     */
+    public void readFrom(DataInput in, Robot[] counterparts) throws IOException {
+        Arrays.fill(heldSince, NOT_HELD);
+        int robots = in.readInt();
+        for (int i = 0; i < robots; i++) {
+            int since = in.readInt();
+            if (i < counterparts.length && counterparts[i] != null) {
+                restoreHeldSince(counterparts[i].getNumber(), since);
+            }
+        }
+        restoreCounters(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    /**
+     * @return the number of trips made by robots of the held types
+     */
+    public long getTrips() {
+        return trips;
+    }
+
+    /**
+     * @return the number of items carried on those trips
+     */
+    public long getItems() {
+        return items;
+    }
+
+    /**
+     * @return the number of ticks robots were held for, summed over the robots
+     */
+    public long getHeldTicks() {
+        return heldTicks;
+    }
+
+    /**
+     * @return the number of times a robot was released for having been held for maxWait ticks
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Sets the counters, as when resuming a run
+     */
+    public void restoreCounters(long trips, long items, long heldTicks, long timeouts) {
+        this.trips = trips;
+        this.items = items;
+        this.heldTicks = heldTicks;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * @return the most items in the pool whose floors are all within floorSpread of each other
+     */
+    private int bestFill(MailPool pool) {
+        if (floorSpread < 0) {
+            return pool.loadableCount();
+        }
+        int best = 0;
+        int window = 0;
+        int lowest = pool.getLowestFloor();
+        for (int floor = lowest; floor <= pool.getHighestFloor(); floor++) {
+            window += pool.count(floor);
+            if (floor - floorSpread > lowest) {
+                window -= pool.count(floor - floorSpread - 1);
+            }
+            best = Math.max(best, window);
+        }
+        return best;
+    }
+
+    /**
+     * @return the average number of items carried per trip by robots of the held types
+     */
+    public double getItemsPerTrip() {
+        return trips == 0 ? 0 : (double) items / trips;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Batching: trips %d | items per trip %.2f | held ticks %d | timeouts %d",
+                trips, getItemsPerTrip(), heldTicks, timeouts);
+    }
+}
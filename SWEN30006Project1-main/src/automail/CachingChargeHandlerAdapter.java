@@ -0,0 +1,275 @@
+package automail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import simulation.Clock;
+
+/**
+ * Caches the service fees looked up by another ChargeHandlerAdapter, so that deliveries rarely wait on the modem.
+ * A fee is fresh for ttl ticks after it was looked up, and is served without a lookup. For maxStale ticks after
+ * that it is stale: it is still served, and looked up again at the next prefetch. Older fees are looked up again
+ * on use. At most maxEntries floors are cached, evicting the least recently used.
+ *
+ * Prefetches are looked up on the prefetcher, off the simulation thread, while the robots travel. So that a run
+ * gives the same fees whatever the timing of the threads, a prefetch is put in the cache, as of the tick it was
+ * asked for, at fixed points only: the first time the cache is used in a later tick, waiting for it if it is not
+ * done, or when its fee is needed, or before any lookup made on the simulation thread, so the wrapped adapter
+ * sees the lookups in the same order on every run. The cache itself is only touched by the simulation thread,
+ * but the adapter it wraps is called from the prefetcher as well, so it must be thread safe. When a prefetched fee
+ * could not be served at the earliest delivery, the tick after dispatch, prefetching is skipped.
+ */
+public class CachingChargeHandlerAdapter implements ChargeHandlerAdapter {
+
+    /** Looks up prefetched fees for every cache in the JVM, one at a time as the modem serves them */
+    public static final ExecutorService PREFETCHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fee-prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ChargeHandlerAdapter chargeHandlerAdapter;
+    private final Executor prefetcher;
+    private final Clock clock;
+    private final int ttl;
+    private final int maxStale;
+    private final LinkedHashMap<Integer, CachedFee> serviceFees;
+    /** Prefetches not yet put in the cache, by floor, in the order they were asked for */
+    private final LinkedHashMap<Integer, Prefetch> inFlight;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long staleHits = 0;
+    private long prefetches = 0;
+    private long waits = 0;
+
+    /**
+     * @param chargeHandlerAdapter performs the actual lookups, from the prefetcher as well as the caller's thread
+     * @param prefetcher runs the prefetches
+     * @param clock the simulation clock fees are aged by
+     * @param ttl Number of ticks a looked up fee is served without being refreshed
+     * @param maxStale Number of ticks after ttl that a fee is still served while waiting for a refresh
+     * @param maxEntries The most floors cached at once
+     */
+    public CachingChargeHandlerAdapter(ChargeHandlerAdapter chargeHandlerAdapter, Executor prefetcher, Clock clock,
+                                       int ttl, int maxStale, int maxEntries) {
+        this.chargeHandlerAdapter = chargeHandlerAdapter;
+        this.prefetcher = prefetcher;
+        this.clock = clock;
+        this.ttl = ttl;
+        this.maxStale = maxStale;
+        this.serviceFees = new LinkedHashMap<Integer, CachedFee>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedFee> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.inFlight = new LinkedHashMap<Integer, Prefetch>();
+    }
+
+    /**
+     * Gets the service fee for a floor from the cache, looking it up if it is missing or too old
+     * @param floor Floor number where service fee is required
+     * @return Service fee for the given floor
+     */
+    public double calculateServiceFee(int floor) {
+        installPrefetched(false);
+        CachedFee cached = serviceFees.get(floor);
+        if (cached != null) {
+            int age = clock.Time() - cached.lookedUpAt;
+            if (age <= ttl) {
+                hits++;
+                return cached.serviceFee;
+            }
+            if (age <= ttl + maxStale) {
+                staleHits++;
+                return cached.serviceFee;
+            }
+        }
+        Prefetch prefetch = inFlight.remove(floor);
+        if (prefetch != null) {
+            waits++;
+            double serviceFee = prefetch.serviceFee.join();
+            store(floor, serviceFee, prefetch.requestedAt);
+            return serviceFee;
+        }
+        /** Let the prefetches asked for earlier reach the adapter first */
+        installPrefetched(true);
+        misses++;
+        double serviceFee = chargeHandlerAdapter.calculateServiceFee(floor);
+        store(floor, serviceFee, clock.Time());
+        return serviceFee;
+    }
+
+    /**
+     * Starts looking up the service fee for a floor on the prefetcher, unless a fresh one is cached or already
+     * being looked up
+     * @param floor Floor number where service fee will be required
+     */
+    public void prefetchServiceFee(int floor) {
+        if (ttl + maxStale == 0) {
+            return;
+        }
+        installPrefetched(false);
+        if (inFlight.containsKey(floor)) {
+            return;
+        }
+        CachedFee cached = serviceFees.get(floor);
+        if (cached == null || clock.Time() - cached.lookedUpAt > ttl) {
+            prefetches++;
+            inFlight.put(floor, new Prefetch(clock.Time(),
+                    CompletableFuture.supplyAsync(() -> chargeHandlerAdapter.calculateServiceFee(floor), prefetcher)));
+        }
+    }
+
+    /**
+     * Puts prefetches in the cache, waiting for any that are not done
+     * @param all whether to put in every prefetch, or only those asked for before the current tick
+     */
+    private void installPrefetched(boolean all) {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<Integer, Prefetch>> entries = inFlight.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Prefetch> entry = entries.next();
+            Prefetch prefetch = entry.getValue();
+            if (all || prefetch.requestedAt < clock.Time()) {
+                store(entry.getKey(), prefetch.serviceFee.join(), prefetch.requestedAt);
+                entries.remove();
+            }
+        }
+    }
+
+    private void store(int floor, double serviceFee, int lookedUpAt) {
+        CachedFee cached = serviceFees.get(floor);
+        if (cached == null) {
+            serviceFees.put(floor, new CachedFee(serviceFee, lookedUpAt));
+        } else {
+            /** Refresh the entry in place rather than replace it */
+            cached.serviceFee = serviceFee;
+            cached.lookedUpAt = lookedUpAt;
+        }
+    }
+
+    public double calculateMaintenanceFee(double avgOperatingTime, double typeBasedRate) {
+        return chargeHandlerAdapter.calculateMaintenanceFee(avgOperatingTime, typeBasedRate);
+    }
+
+    public Charge calculateCharge(int floor, double avgOperatingTime, double typeBasedRate) {
+        double serviceFee = calculateServiceFee(floor);
+        double maintenanceFee = calculateMaintenanceFee(avgOperatingTime, typeBasedRate);
+        return new Charge(serviceFee, maintenanceFee, avgOperatingTime);
+    }
+
+    public String formSummaryString(int floor, double avgOperatingTime, double typeBasedRate) {
+        return calculateCharge(floor, avgOperatingTime, typeBasedRate).toSummaryString();
+    }
+
+    /**
+     * @return number of fees served fresh from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of fees that had to be looked up when they were needed
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of fees served from the cache after their ttl
+     */
+    public long getStaleHits() {
+        return staleHits;
+    }
+
+    /**
+     * @return number of lookups made ahead of time
+     */
+    public long getPrefetches() {
+        return prefetches;
+    }
+
+    /**
+     * @return number of fees needed while their prefetch was still under way
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * Writes the cached fees, least recently used first, and the counters, as for a snapshot of the run. Prefetches
+     * under way are waited for and cached first.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        installPrefetched(true);
+        out.writeInt(serviceFees.size());
+        for (Map.Entry<Integer, CachedFee> entry : serviceFees.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeDouble(entry.getValue().serviceFee);
+            out.writeInt(entry.getValue().lookedUpAt);
+        }
+        out.writeLong(hits);
+        out.writeLong(misses);
+        out.writeLong(staleHits);
+        out.writeLong(prefetches);
+        out.writeLong(waits);
+    }
+
+    /**
+     * Replaces the cached fees and the counters with those written by writeTo
+     */
+    public void readFrom(DataInput in) throws IOException {
+        installPrefetched(true);
+        serviceFees.clear();
+        int entries = in.readInt();
+        for (int i = 0; i < entries; i++) {
+            int floor = in.readInt();
+            double serviceFee = in.readDouble();
+            serviceFees.put(floor, new CachedFee(serviceFee, in.readInt()));
+        }
+        hits = in.readLong();
+        misses = in.readLong();
+        staleHits = in.readLong();
+        prefetches = in.readLong();
+        waits = in.readLong();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Fee cache: hits %d | stale %d | misses %d | prefetches %d | waits %d", hits, staleHits,
+                misses, prefetches, waits);
+    }
+
+    private static class Prefetch {
+        final int requestedAt;
+        final CompletableFuture<Double> serviceFee;
+
+        Prefetch(int requestedAt, CompletableFuture<Double> serviceFee) {
+            this.requestedAt = requestedAt;
+            this.serviceFee = serviceFee;
+        }
+    }
+
+    private static class CachedFee {
+        double serviceFee;
+        int lookedUpAt;
+
+        CachedFee(double serviceFee, int lookedUpAt) {
+            this.serviceFee = serviceFee;
+            this.lookedUpAt = lookedUpAt;
+        }
+    }
+}
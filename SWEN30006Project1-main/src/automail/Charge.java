@@ -0,0 +1,46 @@
+package automail;
+
+/**
+ * The charge for a single delivery
+ */
+public class Charge {
+
+    private final double serviceFee;
+    private final double maintenanceFee;
+    private final double avgOperatingTime;
+
+    /**
+     * @param serviceFee Service fee for the delivery floor
+     * @param maintenanceFee Maintenance fee for the delivering robot's type
+     * @param avgOperatingTime Average lifetime operating time of all instances of the robot's type
+     */
+    public Charge(double serviceFee, double maintenanceFee, double avgOperatingTime) {
+        this.serviceFee = serviceFee;
+        this.maintenanceFee = maintenanceFee;
+        this.avgOperatingTime = avgOperatingTime;
+    }
+
+    public double getServiceFee() {
+        return serviceFee;
+    }
+
+    public double getMaintenanceFee() {
+        return maintenanceFee;
+    }
+
+    public double getAvgOperatingTime() {
+        return avgOperatingTime;
+    }
+
+    public double getTotal() {
+        return serviceFee + maintenanceFee;
+    }
+
+    /**
+     * @return the string, appended to the end of a delivery, that summarises the charge information
+     */
+    public String toSummaryString() {
+        return String.format(" | Service Fee: %.2f | Maintenance: %.2f | Avg. Operating Time: %.2f | Total Charge: %.2f",
+                serviceFee, maintenanceFee, avgOperatingTime, getTotal());
+    }
+}
@@ -9,6 +9,13 @@ public interface ChargeHandlerAdapter {
      */
     public double calculateServiceFee(int floor);
 
+    /**
+     * Hints that the service fee for a floor will be needed soon, so that it can be looked up ahead of time
+     * @param floor Floor number where service fee will be required
+     */
+    public default void prefetchServiceFee(int floor) {
+    }
+
     /**
      * Calculates the maintenance fee for a robot type
      * @param avgOperatingTime Average lifetime operating time of all instances of a robot type
@@ -17,6 +24,15 @@ public interface ChargeHandlerAdapter {
      */
     public double calculateMaintenanceFee(double avgOperatingTime, double typeBasedRate);
 
+    /**
+     * Calculates the charge for a delivery
+     * @param floor Floor number where service fee is required
+     * @param avgOperatingTime Average lifetime operating time of all instances of a robot type
+     * @param typeBasedRate The maintenance charge rate, specific to a robot type
+     * @return Charge for the delivery
+     */
+    public Charge calculateCharge(int floor, double avgOperatingTime, double typeBasedRate);
+
     /**
      * Forms the string, appended to the end of a delivery, that summarises the charge information
      * @param floor Floor number where service fee is required
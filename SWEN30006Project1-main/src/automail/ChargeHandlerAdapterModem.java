@@ -2,54 +2,76 @@ package automail;
 
 import com.unimelb.swen30006.wifimodem.WifiModem;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
 
 public class ChargeHandlerAdapterModem implements ChargeHandlerAdapter {
-    private WifiModem wifiModem;
-    private HashMap<Integer, Double> previousServiceFees;
-    private static ChargeHandlerAdapter chargeHandlerAdapter;
+    private IntToDoubleFunction priceLookup;
+    /** The last service fee for each floor from firstFloor up, NaN for floors not yet looked up */
+    private double[] previousServiceFees;
+    private int firstFloor;
 
     public ChargeHandlerAdapterModem(WifiModem wifiModem) {
-        this.wifiModem = wifiModem;
-        this.previousServiceFees = new HashMap<Integer, Double>();
+        /** The modem is shared by every simulation in the JVM */
+        this(floor -> {
+            synchronized (wifiModem) {
+                return wifiModem.forwardCallToAPI_LookupPrice(floor);
+            }
+        });
     }
 
     /**
-     * Gets instance of the ChargeHandler, according to the Singleton Pattern
-     * @return ChargeHandler instance
-     * @throws Exception
+     * @param priceLookup Looks up the service fee for a floor, returning -1 on failure as the modem does
      */
-    public static ChargeHandlerAdapter getInstance() throws Exception {
-        if(chargeHandlerAdapter == null)
-        {
-            WifiModem wifiModem = WifiModem.getInstance(Building.getInstance().getMailroomLocationFloor());
-            chargeHandlerAdapter = new ChargeHandlerAdapterModem(wifiModem);
-        }
-        return chargeHandlerAdapter;
+    public ChargeHandlerAdapterModem(IntToDoubleFunction priceLookup) {
+        this.priceLookup = priceLookup;
+        this.previousServiceFees = new double[0];
+        this.firstFloor = 0;
     }
 
     /**
-     * Performs lookup of service fee to given wifi modem
+     * Performs lookup of service fee to given wifi modem. Safe to call from a prefetching thread.
      * @param floor Floor number where service fee is required
      * @return Service fee for the given floor
      */
-    public double calculateServiceFee(int floor) {
-        double serviceFee = wifiModem.forwardCallToAPI_LookupPrice(floor);
+    public synchronized double calculateServiceFee(int floor) {
+        double serviceFee = priceLookup.applyAsDouble(floor);
         if (serviceFee == -1.0) {
-            if (previousServiceFees.containsKey(floor)) {
-                serviceFee = previousServiceFees.get(floor);
+            double previousServiceFee = previousServiceFee(floor);
+            if (!Double.isNaN(previousServiceFee)) {
+                serviceFee = previousServiceFee;
             }
             else {
                 serviceFee = 0;
             }
         }
-        if (previousServiceFees.get(floor) == null) {
-            previousServiceFees.put(floor, serviceFee);
+        setPreviousServiceFee(floor, serviceFee);
+        return serviceFee;
+    }
+
+    /**
+     * @return the last service fee for the floor, NaN if it has not been looked up
+     */
+    private double previousServiceFee(int floor) {
+        int index = floor - firstFloor;
+        return index >= 0 && index < previousServiceFees.length ? previousServiceFees[index] : Double.NaN;
+    }
+
+    private void setPreviousServiceFee(int floor, double serviceFee) {
+        if (previousServiceFees.length == 0) {
+            firstFloor = floor;
         }
-        else {
-            previousServiceFees.replace(floor, serviceFee);
+        int end = firstFloor + previousServiceFees.length;
+        if (floor < firstFloor || floor >= end) {
+            /** Grow to cover the floor, which only happens the first time a floor outside the range is seen */
+            int first = Math.min(firstFloor, floor);
+            double[] grown = new double[Math.max(end, floor + 1) - first];
+            Arrays.fill(grown, Double.NaN);
+            System.arraycopy(previousServiceFees, 0, grown, firstFloor - first, previousServiceFees.length);
+            previousServiceFees = grown;
+            firstFloor = first;
         }
-        return serviceFee;
+        previousServiceFees[floor - firstFloor] = serviceFee;
     }
 
     /**
@@ -63,20 +85,27 @@ public class ChargeHandlerAdapterModem implements ChargeHandlerAdapter {
     }
 
     /**
-     * Forms the string, appended to the end of a delivery, that summarises the charge information
+     * Calculates the charge for a delivery
      * @param floor Floor number where service fee is required
      * @param avgOperatingTime Average lifetime operating time of all instances of a robot type
      * @param typeBasedRate The maintenance charge rate, specific to a robot type
-     * @return String that summarises charge information
+     * @return Charge for the delivery
      */
-    public String formSummaryString(int floor, double avgOperatingTime, double typeBasedRate) {
+    public Charge calculateCharge(int floor, double avgOperatingTime, double typeBasedRate) {
         double serviceFee = calculateServiceFee(floor);
         double maintenanceFee = calculateMaintenanceFee(avgOperatingTime, typeBasedRate);
-        double total = serviceFee + maintenanceFee;
-
-        return String.format(" | Service Fee: %.2f | Maintenance: %.2f | Avg. Operating Time: %.2f | Total Charge: %.2f",
-                serviceFee, maintenanceFee, avgOperatingTime, total);
+        return new Charge(serviceFee, maintenanceFee, avgOperatingTime);
+    }
 
+    /**
+     * Forms the string, appended to the end of a delivery, that summarises the charge information
+     * @param floor Floor number where service fee is required
+     * @param avgOperatingTime Average lifetime operating time of all instances of a robot type
+     * @param typeBasedRate The maintenance charge rate, specific to a robot type
+     * @return String that summarises charge information
+     */
+    public String formSummaryString(int floor, double avgOperatingTime, double typeBasedRate) {
+        return calculateCharge(floor, avgOperatingTime, typeBasedRate).toSummaryString();
     }
 
 
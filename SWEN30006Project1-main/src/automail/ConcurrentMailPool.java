@@ -0,0 +1,122 @@
+package automail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import exceptions.ItemTooHeavyException;
+import simulation.SimulationContext;
+
+/**
+ * A MailPool that any number of threads can add mail to while the simulation thread loads robots.
+ *
+ * addToPool only appends to a lock-free queue for the item's floor, so producers of mail for different floors
+ * never touch the same queue, and producers for the same floor only race on its tail. The simulation thread
+ * drains the queues into the pool at the start of loadItemsToRobot, so robots are loaded from a fixed snapshot:
+ * mail added while robots are being loaded waits for the next tick. Drained items are put in arrival order
+ * before they join the pool, items arriving together in number order, which makes the pool's order independent of
+ * how the producers interleaved.
+ *
+ * size() counts the items not yet drained, but dispatch policies only load the drained ones.
+ *
+ * Everything other than addToPool and getPendingCount must be called from the simulation thread. An item must be
+ * stored in the MailStore, which is not safe to use from several threads, before its handle is added.
+ */
+public class ConcurrentMailPool extends MailPool {
+
+	private final MailStore mailStore;
+	/** The queue for each floor, from the lowest up */
+	private final List<ConcurrentLinkedQueue<Integer>> incoming;
+	private final int lowestFloor;
+	private final LongAdder pending;
+	/**
+	 * Items drained from the queues as arrival time << 32 | number, so sorting them puts them in arrival order, and
+	 * as number << 32 | handle, so the handle of each can be found by its number
+	 */
+	private long[] drained;
+	private long[] handles;
+	private int drainedCount;
+
+	public ConcurrentMailPool(SimulationContext context) {
+		super(context);
+		mailStore = context.getMailStore();
+		Building building = context.getBuilding();
+		lowestFloor = building.getLowestFloor();
+		incoming = new ArrayList<ConcurrentLinkedQueue<Integer>>(building.getnFloors());
+		for (int i = 0; i < building.getnFloors(); i++) incoming.add(new ConcurrentLinkedQueue<Integer>());
+		pending = new LongAdder();
+		drained = new long[64];
+		handles = new long[64];
+	}
+
+	/**
+	 * Adds an item to the mail pool. Safe to call from any thread.
+	 * @param mailItem the handle of the mail item being added.
+	 */
+	@Override
+	public void addToPool(int mailItem) {
+		incoming.get(mailStore.getDestFloor(mailItem) - lowestFloor).offer(mailItem);
+		pending.increment();
+	}
+
+	/**
+	 * @return the number of items added but not yet drained into the pool. Safe to call from any thread.
+	 */
+	public long getPendingCount() {
+		return pending.sum();
+	}
+
+	/**
+	 * @return the number of items waiting in the pool, counting those added but not yet drained into it
+	 */
+	@Override
+	public int size() {
+		return super.size() + (int) pending.sum();
+	}
+
+	/**
+	 * Moves all mail added so far into the pool
+	 */
+	public void drain() {
+		for (ConcurrentLinkedQueue<Integer> queue : incoming) {
+			Integer mailItem;
+			while ((mailItem = queue.poll()) != null) {
+				if (drainedCount == drained.length) {
+					drained = Arrays.copyOf(drained, drainedCount * 2);
+					handles = Arrays.copyOf(handles, drainedCount * 2);
+				}
+				int number = mailStore.getNumber(mailItem);
+				drained[drainedCount] = (long) mailStore.getArrivalTime(mailItem) << 32 | number;
+				handles[drainedCount++] = (long) number << 32 | mailItem;
+			}
+		}
+		if (drainedCount == 0) return;
+		pending.add(-drainedCount);
+		Arrays.sort(drained, 0, drainedCount);
+		Arrays.sort(handles, 0, drainedCount);
+		for (int i = 0; i < drainedCount; i++) {
+			long number = drained[i] & 0xFFFFFFFFL;
+			/** The number's entry is the first at or after number << 32, as no handle is negative */
+			int at = Arrays.binarySearch(handles, 0, drainedCount, number << 32);
+			super.addToPool((int) handles[at < 0 ? -at - 1 : at]);
+		}
+		drainedCount = 0;
+	}
+
+	/**
+	 * Drains the mail added so far, then lists the pool
+	 */
+	@Override
+	public int[] getPooledItems() {
+		drain();
+		return super.getPooledItems();
+	}
+
+	@Override
+	public void loadItemsToRobot() throws ItemTooHeavyException {
+		drain();
+		super.loadItemsToRobot();
+	}
+}
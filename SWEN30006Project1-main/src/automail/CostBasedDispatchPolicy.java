@@ -0,0 +1,195 @@
+package automail;
+
+import java.util.ArrayDeque;
+
+import exceptions.ItemTooHeavyException;
+
+/**
+ * Matches waiting robots to batches of items by the delivery delay each pairing is expected to cost.
+ *
+ * A candidate trip for a robot is built around each floor with mail: the items for that floor, then the floors
+ * below it, nearest first, then the floors above it, nearest first, up to the robot's capacity. The robot is loaded
+ * so that it delivers the trip in a sweep out from the mailroom, as the ScanRoutePlanner orders it: the floors on
+ * the side whose furthest stop is nearer first, each side nearest floor first. The delay of each item is estimated
+ * as the report scores it, at the tick the robot would deliver it travelling at the robot's speed and stopping a
+ * tick per delivery. What matters is how fast that delay grows: each tick the trip is put off adds the delay the items
+ * would gain if each were delivered a tick later.
+ *
+ * Each time, the pairing whose items gain the most delay per tick, for each tick the robot is away on the round
+ * trip, is dispatched, as in Smith's rule for weighted scheduling: a fast robot on a short trip of old, urgent mail
+ * first. Robots of the same type are interchangeable, so only the first waiting robot of each type is considered.
+ */
+public class CostBasedDispatchPolicy implements DispatchPolicy {
+
+    /** The exponent the report raises the delay of an item to */
+    private static final double PENALTY = 1.2;
+
+    /** Whether the report weights the delay of an item by its priority */
+    private final boolean priorityWeighted;
+
+    /** The waiting robots in registration order, reused from tick to tick */
+    private Robot[] robots = new Robot[0];
+    /** The types of the waiting robots, and for each the index of the next one not yet dispatched */
+    private RobotSpec[] specs = new RobotSpec[0];
+    private int[] nextOfType = new int[0];
+    /** Puts each candidate trip into delivery order */
+    private final RoutePlanner sweep = new ScanRoutePlanner();
+    /** The candidate trip being costed and the best so far, in delivery order */
+    private int[] trip = new int[0];
+    private int[] bestTrip = new int[0];
+
+    /**
+     * @param priorityWeighted whether the report weights the delay of an item by its priority
+     */
+    public CostBasedDispatchPolicy(boolean priorityWeighted) {
+        this.priorityWeighted = priorityWeighted;
+    }
+
+    @Override
+    public void loadItemsToRobots(MailPool pool, ArrayDeque<Robot> waiting) throws ItemTooHeavyException {
+        int count = waiting.size();
+        if (count == 0) {
+            return;
+        }
+        if (robots.length < count) {
+            robots = new Robot[count];
+            specs = new RobotSpec[count];
+            nextOfType = new int[count];
+        }
+        waiting.toArray(robots);
+        int types = 0;
+        for (int i = 0; i < count; i++) {
+            int type = 0;
+            while (type < types && specs[type] != robots[i].getSpec()) type++;
+            if (type == types) {
+                specs[types] = robots[i].getSpec();
+                nextOfType[types++] = i;
+                if (trip.length < robots[i].getCapacity()) {
+                    trip = new int[robots[i].getCapacity()];
+                    bestTrip = new int[robots[i].getCapacity()];
+                }
+            }
+        }
+        int time = robots[0].getContext().getClock().Time();
+        int mailroom = robots[0].getContext().getBuilding().getMailroomLocationFloor();
+        MailStore mailStore = pool.getMailStore();
+        while (pool.loadableCount() > 0) {
+            int bestType = -1;
+            int bestLength = 0;
+            double bestSaving = Double.NEGATIVE_INFINITY;
+            for (int type = 0; type < types; type++) {
+                if (nextOfType[type] == count) continue;
+                Robot robot = robots[nextOfType[type]];
+                for (int floor = pool.getHighestFloor(); floor >= pool.getLowestFloor(); floor--) {
+                    if (pool.peek(floor) == MailStore.NONE) continue;
+                    int length = buildTrip(pool, floor, robot.getCapacity(), mailroom);
+                    double saving = savingPerTick(mailStore, trip, length, robot.getMoveSpeed(), mailroom, time);
+                    if (saving > bestSaving) {
+                        bestSaving = saving;
+                        bestType = type;
+                        bestLength = length;
+                        System.arraycopy(trip, 0, bestTrip, 0, length);
+                    }
+                }
+            }
+            if (bestType == -1) {
+                break;
+            }
+            Robot robot = robots[nextOfType[bestType]];
+            load(pool, robot, bestLength);
+            robot.dispatch();
+            int next = nextOfType[bestType] + 1;
+            while (next < count && robots[next].getSpec() != specs[bestType]) next++;
+            nextOfType[bestType] = next;
+        }
+        DispatchPolicy.removeDispatched(waiting);
+    }
+
+    /**
+     * Builds the candidate trip around the seed floor into trip, in delivery order out from the mailroom
+     * @return the number of items in the trip
+     */
+    private int buildTrip(MailPool pool, int seedFloor, int capacity, int mailroom) {
+        int length = 0;
+        for (int floor = seedFloor; floor >= pool.getLowestFloor() && length < capacity; floor--) {
+            for (int i = 0; length < capacity; i++) {
+                int mailItem = pool.peek(floor, i);
+                if (mailItem == MailStore.NONE) break;
+                trip[length++] = mailItem;
+            }
+        }
+        for (int floor = seedFloor + 1; floor <= pool.getHighestFloor() && length < capacity; floor++) {
+            for (int i = 0; length < capacity; i++) {
+                int mailItem = pool.peek(floor, i);
+                if (mailItem == MailStore.NONE) break;
+                trip[length++] = mailItem;
+            }
+        }
+        /** The sweep keeps the pool's order within a floor, so a floor's items still come out of the pool in order */
+        sweep.plan(trip, length, mailroom, pool.getMailStore());
+        return length;
+    }
+
+    /**
+     * Estimates the delay the items of a trip would gain if each were delivered a tick later, per tick of the trip
+     * @param trip the items of the trip in delivery order
+     * @param moveSpeed the floors per tick of the robot making the trip
+     * @param mailroom the floor the robot sets off from and returns to
+     * @param time the tick the robot is dispatched in
+     * @return the delay saved per tick the robot is away
+     */
+    private double savingPerTick(MailStore mailStore, int[] trip, int length, int moveSpeed, int mailroom,
+                                 int time) {
+        double saving = 0;
+        int floor = mailroom;
+        int deliveredAt = time;
+        for (int i = 0; i < length; i++) {
+            int destination = mailStore.getDestFloor(trip[i]);
+            deliveredAt += travelTicks(floor, destination, moveSpeed) + 1;
+            floor = destination;
+            saving += expectedDelay(mailStore, trip[i], deliveredAt + 1)
+                    - expectedDelay(mailStore, trip[i], deliveredAt);
+        }
+        /** Back in the mailroom, and dispatched again the tick after it registers */
+        int roundTrip = deliveredAt + travelTicks(floor, mailroom, moveSpeed) + 2 - time;
+        return saving / roundTrip;
+    }
+
+    /**
+     * @return the delay the report scores for the item if it is delivered at the given tick
+     */
+    private double expectedDelay(MailStore mailStore, int mailItem, int deliveredAt) {
+        double delay = Math.pow(deliveredAt - mailStore.getArrivalTime(mailItem), PENALTY);
+        return priorityWeighted ? delay * (1 + Math.sqrt(mailStore.getPriorityLevel(mailItem))) : delay;
+    }
+
+    private static int travelTicks(int from, int to, int moveSpeed) {
+        return (Math.abs(to - from) + moveSpeed - 1) / moveSpeed;
+    }
+
+    /**
+     * Takes the best trip from the pool and loads it so that the robot delivers it in order: the first item to the
+     * hand, if it has one, and the rest to the tube last first, as the tube is unloaded from the top
+     */
+    private void load(MailPool pool, Robot robot, int length) throws ItemTooHeavyException {
+        MailStore mailStore = pool.getMailStore();
+        int first = 0;
+        if (robot.getSpec().getHandCapacity() > 0) {
+            robot.loadItem(pool.take(mailStore.getDestFloor(bestTrip[0])));
+            first = 1;
+        }
+        /** Items for one floor come out of the pool in trip order, so take the floor's share before loading it */
+        for (int end = length; end > first; ) {
+            int floor = mailStore.getDestFloor(bestTrip[end - 1]);
+            int start = end - 1;
+            while (start > first && mailStore.getDestFloor(bestTrip[start - 1]) == floor) start--;
+            for (int i = start; i < end; i++) {
+                bestTrip[i] = pool.take(floor);
+            }
+            for (int i = end - 1; i >= start; i--) {
+                robot.loadItem(bestTrip[i]);
+            }
+            end = start;
+        }
+    }
+}
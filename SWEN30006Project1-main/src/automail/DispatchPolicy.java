@@ -0,0 +1,68 @@
+package automail;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import exceptions.ItemTooHeavyException;
+import simulation.SimulationContext;
+import util.Configuration;
+
+/**
+ * Decides which waiting robots the MailPool loads, and with which items.
+ */
+public interface DispatchPolicy {
+
+    /**
+     * Loads items from the pool into waiting robots and dispatches every robot that received items.
+     * Only called while both the pool and the waiting queue are non-empty.
+     * @param pool the pool to take items from
+     * @param waiting the robots waiting in the mailroom, in the order they registered. Dispatched robots must be
+     *                removed, robots left waiting keep their order.
+     * @throws ItemTooHeavyException if a robot is given an item it cannot carry
+     */
+    void loadItemsToRobots(MailPool pool, ArrayDeque<Robot> waiting) throws ItemTooHeavyException;
+
+    /**
+     * Removes the dispatched robots from the waiting queue, keeping the order of the rest. Unlike removeIf,
+     * this allocates nothing.
+     */
+    static void removeDispatched(ArrayDeque<Robot> waiting) {
+        for (int i = waiting.size(); i > 0; i--) {
+            Robot robot = waiting.pollFirst();
+            if (!robot.getReceivedDispatch()) {
+                waiting.addLast(robot);
+            }
+        }
+    }
+
+    /**
+     * @return the policy selected by the Dispatch_Policy property: highest_floor or cost, holding robots of the
+     * Batch_Robot_Types for a fuller tube if Batch_Max_Wait is positive
+     */
+    static DispatchPolicy fromConfiguration(SimulationContext context) {
+        Configuration configuration = context.getConfiguration();
+        String name = configuration.getProperty(Configuration.DISPATCH_POLICY_KEY);
+        DispatchPolicy policy;
+        switch (name) {
+            case "highest_floor":
+                policy = new HighestFloorFirstPolicy();
+                break;
+            case "cost":
+                policy = new CostBasedDispatchPolicy(Boolean.parseBoolean(
+                        configuration.getProperty(Configuration.PRIORITY_WEIGHTED_DELAY_KEY)));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown " + Configuration.DISPATCH_POLICY_KEY + ": " + name);
+        }
+        int maxWait = Integer.parseInt(configuration.getProperty(Configuration.BATCH_MAX_WAIT_KEY));
+        if (maxWait > 0) {
+            policy = new BatchingDispatchPolicy(policy, context, maxWait,
+                    Integer.parseInt(configuration.getProperty(Configuration.BATCH_MIN_FILL_KEY)),
+                    Integer.parseInt(configuration.getProperty(Configuration.BATCH_FLOOR_SPREAD_KEY)),
+                    Arrays.stream(configuration.getProperty(Configuration.BATCH_ROBOT_TYPES_KEY).split(","))
+                            .map(String::trim).collect(Collectors.toSet()));
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,136 @@
+package automail;
+
+import java.util.Arrays;
+
+import automail.Robot.RobotState;
+import exceptions.ExcessiveDeliveryException;
+
+/**
+ * The state of a fleet of robots, held in parallel primitive arrays with one slot per robot: the state, journey,
+ * destination, hand, tube length, deliveries since dispatch, dispatch flag and type of each. A Robot is a view of
+ * its slot, so everything that works with Robot objects works the same whichever layout holds them.
+ *
+ * A journey is the floor and tick a robot set off at and the tick it arrives by, worked out when it sets off;
+ * the floor it is on in between follows from them, so a travelling robot is not moved tick by tick.
+ *
+ * The fleet is only used in the arrays layout; in the objects layout each robot holds its state in fields of its
+ * own, as robots always had. Here all robots share one fleet, and operate() and skipTicks() count the operating
+ * time of the robots that are still travelling in a single pass over the arrays, so a tick over a large fleet
+ * reads a few contiguous arrays instead of chasing a pointer per robot.
+ */
+public class Fleet {
+
+    static final RobotState[] STATES = RobotState.values();
+    private static final int WAITING = RobotState.WAITING.ordinal();
+
+    private final int mailroom;
+    private final Robot[] robots;
+    private int size;
+
+    /** The state of each robot, as the ordinal of its RobotState */
+    final byte[] state;
+    /** The floor each robot set off from, or is waiting on */
+    final int[] floor;
+    /** The tick each robot set off at, after which it moves each tick, and the tick by whose end it arrives */
+    final int[] departedAt;
+    final int[] arrivesAt;
+    final int[] destination;
+    /** Handle of the item in each robot's hand, MailStore.NONE if its hand is empty */
+    final int[] hand;
+    final int[] tubeLength;
+    final int[] deliveryCounter;
+    final boolean[] receivedDispatch;
+    /** The index of each robot's type in the per type arrays below */
+    private final int[] type;
+
+    private RobotSpec[] specs;
+    private RobotTypeStats[] typeStats;
+    private int typeCount;
+
+    /**
+     * @param capacity the number of robots the fleet holds
+     * @param mailroom the floor of the mailroom
+     */
+    public Fleet(int capacity, int mailroom) {
+        this.mailroom = mailroom;
+        this.robots = new Robot[capacity];
+        this.state = new byte[capacity];
+        this.floor = new int[capacity];
+        this.departedAt = new int[capacity];
+        this.arrivesAt = new int[capacity];
+        this.destination = new int[capacity];
+        this.hand = new int[capacity];
+        this.tubeLength = new int[capacity];
+        this.deliveryCounter = new int[capacity];
+        this.receivedDispatch = new boolean[capacity];
+        this.type = new int[capacity];
+        this.specs = new RobotSpec[0];
+        this.typeStats = new RobotTypeStats[0];
+    }
+
+    /**
+     * Gives a robot the next free slot, returning from a trip on the mailroom floor with nothing to carry
+     * @return the slot
+     */
+    int add(Robot robot, RobotSpec spec, RobotTypeStats stats) {
+        int slot = size++;
+        robots[slot] = robot;
+        state[slot] = (byte) RobotState.RETURNING.ordinal();
+        floor[slot] = mailroom;
+        hand[slot] = MailStore.NONE;
+        type[slot] = typeIndex(spec, stats);
+        return slot;
+    }
+
+    private int typeIndex(RobotSpec spec, RobotTypeStats stats) {
+        for (int i = 0; i < typeCount; i++) {
+            if (specs[i] == spec) {
+                return i;
+            }
+        }
+        specs = Arrays.copyOf(specs, typeCount + 1);
+        typeStats = Arrays.copyOf(typeStats, typeCount + 1);
+        specs[typeCount] = spec;
+        typeStats[typeCount] = stats;
+        return typeCount++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Operates every robot in slot order, as calling Robot.operate() on each would. The operating time of a robot
+     * still travelling this tick is counted here; the rest are left to Robot.operate(), in the same order, so the
+     * MailPool, deliveries and the log see them exactly as before.
+     * @param time the current tick
+     */
+    public void operate(int time) throws ExcessiveDeliveryException, Exception {
+        for (int i = 0; i < size; i++) {
+            if (state[i] == WAITING) {
+                if (receivedDispatch[i]) {
+                    robots[i].operate();
+                }
+            } else if (time <= arrivesAt[i]) {
+                typeStats[type[i]].addTimeOperated(1);
+            } else {
+                robots[i].operate();
+            }
+        }
+    }
+
+    /**
+     * Counts the operating time of every robot as Robot.skipTicks() would
+     * @param ticks the number of ticks to skip, which must not exceed any robot's ticksUntilActive()
+     */
+    public void skipTicks(int ticks) {
+        if (ticks == 0) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            if (state[i] != WAITING) {
+                typeStats[type[i]].addTimeOperated(ticks);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package automail;
+
+import java.util.ArrayDeque;
+
+import exceptions.ItemTooHeavyException;
+
+/**
+ * The original dispatch policy: robots are loaded in the order they arrived back in the mailroom, each filled
+ * with the items for the highest floors, earliest arrival first within a floor. When the pool is ordered by
+ * priority, the most urgent items are loaded first and floors only decide within a priority rank.
+ */
+public class HighestFloorFirstPolicy implements DispatchPolicy {
+
+    @Override
+    public void loadItemsToRobots(MailPool pool, ArrayDeque<Robot> waiting) throws ItemTooHeavyException {
+        while (pool.loadableCount() > 0 && !waiting.isEmpty()) {
+            Robot robot = waiting.peekFirst();
+            while (pool.loadableCount() > 0 && !robot.isFull()) {
+                robot.loadItem(pool.take());
+            }
+            robot.dispatch(); // send the robot off if it has any items to deliver
+            waiting.pollFirst(); // remove from mailPool queue
+        }
+    }
+}
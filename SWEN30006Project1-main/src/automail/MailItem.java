@@ -1,8 +1,5 @@
 package automail;
 
-import java.util.Map;
-import java.util.TreeMap;
-
 // import java.util.UUID;
 
 /**
@@ -18,18 +15,27 @@ public class MailItem {
     protected final int arrival_time;
     /** The weight in grams of the mail item */
     protected final int weight;
+    /** The priority level of the mail item, higher is more urgent */
+    protected final int priority_level;
+
+    /** The numeric identifier, unique within a simulation run */
+    private final int number;
 
     /**
      * Constructor for a MailItem
+     * @param number the identifier of this mail item, unique within a simulation run
      * @param dest_floor the destination floor intended for this mail item
      * @param arrival_time the time that the mail arrived
      * @param weight the weight of this mail item
+     * @param priority_level the priority level of this mail item, higher is more urgent
      */
-    public MailItem(int dest_floor, int arrival_time, int weight){
+    public MailItem(int number, int dest_floor, int arrival_time, int weight, int priority_level){
+        this.number = number;
         this.destination_floor = dest_floor;
-        this.id = String.valueOf(hashCode());
+        this.id = String.valueOf(number);
         this.arrival_time = arrival_time;
         this.weight = weight;
+        this.priority_level = priority_level;
     }
 
     @Override
@@ -53,6 +59,14 @@ public class MailItem {
         return id;
     }
 
+    /**
+     *
+     * @return the numeric identifier of the mail item, unique and dense within a simulation run
+     */
+    public int getNumber() {
+        return number;
+    }
+
     /**
      *
      * @return the arrival time of the mail item
@@ -68,15 +82,17 @@ public class MailItem {
    public int getWeight(){
        return weight;
    }
-   
-	static private int count = 0;
-	static private Map<Integer, Integer> hashMap = new TreeMap<Integer, Integer>();
 
+   /**
+    *
+    * @return the priority level of the mail item
+    */
+   public int getPriorityLevel(){
+       return priority_level;
+   }
+   
 	@Override
 	public int hashCode() {
-		Integer hash0 = super.hashCode();
-		Integer hash = hashMap.get(hash0);
-		if (hash == null) { hash = count++; hashMap.put(hash0, hash); }
-		return hash;
+		return number;
 	}
 }
@@ -1,36 +1,101 @@
 package automail;
 
-import java.util.LinkedList;
-import java.util.Comparator;
-import java.util.ListIterator;
+import java.util.ArrayDeque;
 
 import exceptions.ItemTooHeavyException;
+import simulation.SimulationContext;
+import util.Configuration;
+import util.IntDeque;
 
 /**
  * addToPool is called when there are mail items newly arrived at the building to add to the MailPool or
  * if a robot returns with some undelivered items - these are added back to the MailPool.
  * The data structure and algorithms used in the MailPool is your choice.
- * 
+ *
+ * Items are kept in one bucket per destination floor. Taking from the highest non-empty bucket, and from the
+ * front of that bucket, gives the same "highest floor first, arrival order within a floor" order as a stable
+ * sort, without re-sorting the pool on every arrival. Which robots get which items is left to the
+ * DispatchPolicy, highest floor first unless configured otherwise.
+ *
+ * Ordered by priority, there is one bucket per priority rank and floor, at rank * floors + floor, so the
+ * highest bucket holds the most urgent mail for the highest floor and insertion stays a single append.
+ * Priority levels are ranked in steps of PRIORITY_STEP up to MAX_PRIORITY.
+ *
+ * Buckets hold the handles of the items in the run's MailStore, so pooled mail costs an int per item.
  */
 public class MailPool {
 
-	private LinkedList<Item> pool;
-	private LinkedList<Robot> robots;
+	public static final int PRIORITY_STEP = 10;
+	public static final int MAX_PRIORITY = 100;
 
-	public MailPool(){
+	private final MailStore mailStore;
+	private IntDeque[] buckets;
+	private ArrayDeque<Robot> robots;
+	private final int lowestFloor;
+	private final int nFloors;
+	/** Number of priority ranks the buckets are split into, 1 when ordering by floor only */
+	private final int ranks;
+	/** Index of the highest bucket that may be non-empty, -1 if none */
+	private int highestBucket;
+	private int size;
+	private DispatchPolicy dispatchPolicy;
+
+	public MailPool(SimulationContext context){
 		// Start empty
-		pool = new LinkedList<Item>();
-		robots = new LinkedList<Robot>();
+		mailStore = context.getMailStore();
+		Building building = context.getBuilding();
+		lowestFloor = building.getLowestFloor();
+		nFloors = building.getnFloors();
+		String order = context.getConfiguration().getProperty(Configuration.MAIL_POOL_ORDER_KEY);
+		switch (order) {
+			case "floor":
+				ranks = 1;
+				break;
+			case "priority":
+				ranks = MAX_PRIORITY / PRIORITY_STEP + 1;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown " + Configuration.MAIL_POOL_ORDER_KEY + ": " + order);
+		}
+		buckets = new IntDeque[ranks * nFloors];
+		for (int i = 0; i < buckets.length; i++) buckets[i] = new IntDeque();
+		robots = new ArrayDeque<Robot>();
+		highestBucket = -1;
+		size = 0;
+		dispatchPolicy = DispatchPolicy.fromConfiguration(context);
+	}
+
+	public DispatchPolicy getDispatchPolicy() {
+		return dispatchPolicy;
+	}
+
+	public void setDispatchPolicy(DispatchPolicy dispatchPolicy) {
+		this.dispatchPolicy = dispatchPolicy;
 	}
 
 	/**
      * Adds an item to the mail pool
-     * @param mailItem the mail item being added.
+     * @param mailItem the handle of the mail item being added.
      */
-	public void addToPool(MailItem mailItem) {
-		Item item = new Item(mailItem);
-		pool.add(item);
-		pool.sort(new ItemComparator());
+	public void addToPool(int mailItem) {
+		int bucket = bucket(mailStore.getDestFloor(mailItem), rank(mailItem));
+		buckets[bucket].addLast(mailItem);
+		if (bucket > highestBucket) highestBucket = bucket;
+		size++;
+	}
+
+	/**
+	 * @return the number of items waiting in the pool
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of items in the pool that robots can be loaded with now, which dispatch policies go by
+	 */
+	int loadableCount() {
+		return size;
 	}
 
 	/**
@@ -38,59 +103,147 @@ public class MailPool {
      */
 	public void loadItemsToRobot() throws ItemTooHeavyException {
 		//List available robots
-		ListIterator<Robot> i = robots.listIterator();
-		while (i.hasNext()) loadItem(i);
-	}
-	
-	//load items to the robot
-	private void loadItem(ListIterator<Robot> i) throws ItemTooHeavyException {
-		Robot robot = i.next();
-		assert(robot.isEmpty());
-		// System.out.printf("P: %3d%n", pool.size());
-		ListIterator<Item> j = pool.listIterator();
-		if (pool.size() > 0) {
-			try {
-				while (pool.size() > 0 && !robot.isFull()) {
-					robot.loadItem(j.next().mailItem);
-					j.remove();
-				}
-			robot.dispatch(); // send the robot off if it has any items to deliver
-			i.remove();       // remove from mailPool queue
-			} catch (Exception e) { 
-	            throw e; 
-	        } 
-		}
+		if (size > 0 && !robots.isEmpty()) dispatchPolicy.loadItemsToRobots(this, robots);
 	}
 
 	/**
-     * @param robot refers to a robot which has arrived back ready for more mailItems to deliver
-     */	
-	public void registerWaiting(Robot robot) { // assumes won't be there already
-		robots.add(robot);
+	 * @return the earliest arrival for the highest floor, of the highest priority rank if ordering by priority
+	 */
+	int peek() {
+		while (buckets[highestBucket].isEmpty()) highestBucket--;
+		return buckets[highestBucket].peekFirst();
 	}
 
-	private class Item {
-		int destination;
-		MailItem mailItem;
-		// Use stable sort to keep arrival time relative positions
+	/**
+	 * Removes the next item in pool order, as returned by peek(), from the pool
+	 * @return the removed item
+	 */
+	int take() {
+		int mailItem = peek();
+		buckets[highestBucket].pollFirst();
+		size--;
+		return mailItem;
+	}
 
-		public Item(MailItem mailItem) {
-			destination = mailItem.getDestFloor();
-			this.mailItem = mailItem;
+	/**
+	 * @return the earliest arrival of the highest rank for the floor, or MailStore.NONE if there is no mail for it
+	 */
+	int peek(int floor) {
+		for (int rank = ranks - 1; rank >= 0; rank--) {
+			IntDeque bucket = buckets[bucket(floor, rank)];
+			if (!bucket.isEmpty()) return bucket.peekFirst();
 		}
+		return MailStore.NONE;
+	}
+
+	/**
+	 * Removes the earliest arrival of the highest rank for the floor from the pool
+	 * @return the removed item, or MailStore.NONE if there is no mail for the floor
+	 */
+	int take(int floor) {
+		for (int rank = ranks - 1; rank >= 0; rank--) {
+			IntDeque bucket = buckets[bucket(floor, rank)];
+			if (!bucket.isEmpty()) {
+				int mailItem = bucket.pollFirst();
+				size--;
+				return mailItem;
+			}
+		}
+		return MailStore.NONE;
+	}
+
+	/**
+	 * @return the index-th item take(floor) would remove, counting from 0, or MailStore.NONE if there are fewer
+	 */
+	int peek(int floor, int index) {
+		for (int rank = ranks - 1; rank >= 0; rank--) {
+			IntDeque bucket = buckets[bucket(floor, rank)];
+			if (index < bucket.size()) return bucket.get(index);
+			index -= bucket.size();
+		}
+		return MailStore.NONE;
+	}
+
+	/**
+	 * @return the number of items for the floor
+	 */
+	int count(int floor) {
+		int count = 0;
+		for (int rank = 0; rank < ranks; rank++) count += buckets[bucket(floor, rank)].size();
+		return count;
+	}
+
+	private int bucket(int floor, int rank) {
+		return rank * nFloors + floor - lowestFloor;
+	}
+
+	/**
+	 * @return the priority rank of the item, 0 when ordering by floor only
+	 */
+	private int rank(int mailItem) {
+		if (ranks == 1) return 0;
+		return Math.min(mailStore.getPriorityLevel(mailItem), MAX_PRIORITY) / PRIORITY_STEP;
 	}
 
-	public class ItemComparator implements Comparator<Item> {
-		@Override
-		public int compare(Item i1, Item i2) {
-			int order = 0;
-			if (i1.destination < i2.destination) {
-				order = 1;
-			} else if (i1.destination > i2.destination) {
-				order = -1;
+	/**
+	 * @return the item that arrived first, or MailStore.NONE if the pool is empty
+	 */
+	int oldestItem() {
+		int oldest = MailStore.NONE;
+		for (int i = 0; i <= highestBucket; i++) {
+			if (buckets[i].isEmpty()) continue;
+			int first = buckets[i].peekFirst();
+			if (oldest == MailStore.NONE || mailStore.getArrivalTime(first) < mailStore.getArrivalTime(oldest)
+					|| (mailStore.getArrivalTime(first) == mailStore.getArrivalTime(oldest) && first < oldest)) {
+				oldest = first;
 			}
-			return order;
 		}
+		return oldest;
+	}
+
+	MailStore getMailStore() {
+		return mailStore;
+	}
+
+	int getLowestFloor() {
+		return lowestFloor;
+	}
+
+	int getHighestFloor() {
+		return lowestFloor + nFloors - 1;
+	}
+
+	/**
+	 * @return the handles of the items in the pool, in an order that rebuilds the pool when they are added back
+	 */
+	public int[] getPooledItems() {
+		int[] pooled = new int[size];
+		int count = 0;
+		for (IntDeque bucket : buckets) {
+			for (int i = 0; i < bucket.size(); i++) pooled[count++] = bucket.get(i);
+		}
+		return pooled;
+	}
+
+	/**
+	 * @return the robots registered as waiting in the mailroom, in the order they registered
+	 */
+	public Robot[] getWaitingRobots() {
+		return robots.toArray(new Robot[0]);
+	}
+
+	/**
+	 * @return true if at least one robot is registered as waiting in the mailroom
+	 */
+	public boolean hasWaitingRobots() {
+		return !robots.isEmpty();
+	}
+
+	/**
+     * @param robot refers to a robot which has arrived back ready for more mailItems to deliver
+     */
+	public void registerWaiting(Robot robot) { // assumes won't be there already
+		robots.add(robot);
 	}
 
 }
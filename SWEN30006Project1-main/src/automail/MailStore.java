@@ -0,0 +1,126 @@
+package automail;
+
+import java.util.Arrays;
+
+/**
+ * Holds the mail items of a simulation run column by column, in primitive arrays indexed by the item's slot.
+ * The rest of the simulation refers to an item by its slot, its handle, so an item costs a few bytes in each
+ * column rather than an object of its own. MailItem objects are only made, by item(), where an item leaves the
+ * simulation, e.g. to be logged.
+ *
+ * An item is stored when its mail is generated or read and released once it is delivered, and released slots
+ * are used again, so when mail is streamed the store only grows to the most items in the run at once. A handle
+ * is therefore not the item's number: anything kept beyond the item's delivery, or written out, goes by
+ * getNumber().
+ */
+public class MailStore {
+
+    /** The handle standing for no item */
+    public static final int NONE = -1;
+
+    private int[] number;
+    private int[] destination;
+    private int[] arrival;
+    private int[] weight;
+    private int[] priority;
+    private int capacity;
+    /** The slots in use or released so far; released slots are stacked in free, which has room for them all */
+    private int used;
+    private int[] free;
+    private int freeCount;
+
+    public MailStore() {
+        number = new int[0];
+        destination = new int[0];
+        arrival = new int[0];
+        weight = new int[0];
+        priority = new int[0];
+        capacity = 0;
+        free = new int[0];
+    }
+
+    private void grow() {
+        int grown = Math.max(16, capacity + (capacity >> 1));
+        number = Arrays.copyOf(number, grown);
+        destination = Arrays.copyOf(destination, grown);
+        arrival = Arrays.copyOf(arrival, grown);
+        weight = Arrays.copyOf(weight, grown);
+        priority = Arrays.copyOf(priority, grown);
+        free = Arrays.copyOf(free, grown);
+        capacity = grown;
+    }
+
+    /**
+     * Stores an item in a released slot, or a new one if none is free
+     * @param number the item's number
+     * @return the item's handle
+     */
+    public int put(int number, int destinationFloor, int arrivalTime, int weight, int priorityLevel) {
+        int handle;
+        if (freeCount > 0) {
+            handle = free[--freeCount];
+        } else {
+            if (used == capacity) grow();
+            handle = used++;
+        }
+        this.number[handle] = number;
+        this.destination[handle] = destinationFloor;
+        this.arrival[handle] = arrivalTime;
+        this.weight[handle] = weight;
+        this.priority[handle] = priorityLevel;
+        return handle;
+    }
+
+    /**
+     * Stores the fields of a mail item
+     * @return the item's handle
+     */
+    public int put(MailItem mailItem) {
+        return put(mailItem.getNumber(), mailItem.getDestFloor(), mailItem.getArrivalTime(), mailItem.getWeight(),
+                mailItem.getPriorityLevel());
+    }
+
+    /**
+     * Frees an item's slot for the next item stored. The handle must not be used afterwards.
+     */
+    public void release(int handle) {
+        free[freeCount++] = handle;
+    }
+
+    /**
+     * @return a new MailItem holding the item's fields
+     */
+    public MailItem item(int handle) {
+        return new MailItem(number[handle], destination[handle], arrival[handle], weight[handle], priority[handle]);
+    }
+
+    /**
+     * @return the item's number, which identifies it for the whole run
+     */
+    public int getNumber(int handle) {
+        return number[handle];
+    }
+
+    public int getDestFloor(int handle) {
+        return destination[handle];
+    }
+
+    public int getArrivalTime(int handle) {
+        return arrival[handle];
+    }
+
+    public int getWeight(int handle) {
+        return weight[handle];
+    }
+
+    public int getPriorityLevel(int handle) {
+        return priority[handle];
+    }
+
+    /**
+     * @return the number of slots there is room for
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -2,64 +2,106 @@ package automail;
 
 import exceptions.ExcessiveDeliveryException;
 import exceptions.ItemTooHeavyException;
-import simulation.Clock;
 import simulation.IMailDelivery;
+import simulation.SimulationContext;
 import util.Configuration;
 
 /**
  * The robot delivers mail!
+ *
+ * Every robot runs the same state machine in operate(); what it carries, how fast it moves and what its
+ * maintenance costs come from the RobotSpec of its type. In the objects layout the robot holds its state in its
+ * own fields; in the arrays layout it is a view of its slot in the Fleet shared by all the robots.
+ *
+ * When a robot sets off it works out the tick it arrives by; until then operate() only counts its operating
+ * time, and the floor it is on follows from where and when it set off.
  */
-public abstract class Robot {
-
-    protected static final int INDIVIDUAL_MAX_WEIGHT = 2000;
+public class Robot {
 
+    private final RobotSpec spec;
     private IMailDelivery delivery;
     private final String id;
+    /** Index of the robot in Automail.getRobots() */
+    private final int number;
+    private final String robotType;
     /** Possible states the robot can be in */
     public enum RobotState { DELIVERING, WAITING, RETURNING }
-    private RobotState current_state;
-    private int current_floor;
-    private int destination_floor;
-    private MailPool mailPool;
+    /** The fleet holding the robot's state and the robot's slot in it, or null if the robot holds its own */
+    private final Fleet fleet;
+    private final int slot;
+    /** The robot's own state, used when it has no fleet; the Fleet documents each */
+    private RobotState currentState;
+    private int currentFloor;
+    private int departedAt;
+    private int arrivesAt;
+    private int destinationFloor;
+    private int deliveryItem;
+    private int currentTubeLength;
+    private int deliveryCounter;
     private boolean receivedDispatch;
+    private MailPool mailPool;
     private final int TUBE_SIZE;
-    private int currentTubeLength = 0;
-    protected boolean feeCharging;
+    private boolean feeCharging;
+    private final ChargeHandlerAdapter chargeHandlerAdapter;
+    private final SimulationContext context;
+    /** Holds the items the robot carries, which it refers to by handle */
+    private final MailStore mailStore;
+    private final RobotTypeStats typeStats;
+    private final RoutePlanner routePlanner;
+    /** Scratch space for planning a trip: the hand item, if any, then the tube from top to bottom */
+    private final int[] stops;
+
+    /** Handles of the items in the tube, bottom first */
+    private int[] tube;
 
-    private MailItem deliveryItem = null;
-    private MailItem[] tube;
-    private int deliveryCounter;
-
-    public Robot() {
-        this.id = null;
-        this.delivery = null;
-        this.current_state = null;
-        this.delivery = null;
-        this.current_floor = 0;
-        this.receivedDispatch = false;
-        this.mailPool = null;
-        this.TUBE_SIZE = 0;
-
-    }
     /**
      * Initiates the robot's location at the start to be at the mailroom
      * also set it to be waiting for mail.
+     * @param context the simulation run this robot belongs to
      * @param delivery governs the final delivery
      * @param mailPool is the source of mail items
+     * @param number the index of the robot in Automail.getRobots()
+     * @param spec the type of the robot
+     */
+    public Robot(SimulationContext context, IMailDelivery delivery, MailPool mailPool, int number, RobotSpec spec)
+            throws Exception {
+        this(context, delivery, mailPool, number, spec, null);
+    }
+
+    /**
+     * @param fleet the fleet to hold the robot's state, which gives it the next free slot, or null for the robot
+     * to hold its own
      */
-    public Robot(IMailDelivery delivery, MailPool mailPool, int number, String robotType, int TUBE_SIZE){
-    	this.id = robotType + number;
-        // current_state = RobotState.WAITING;
-    	current_state = RobotState.RETURNING;
-        current_floor = Building.getInstance().getMailroomLocationFloor();
+    public Robot(SimulationContext context, IMailDelivery delivery, MailPool mailPool, int number, RobotSpec spec,
+                 Fleet fleet) throws Exception {
+    	this.spec = spec;
+    	this.id = spec.getPrefix() + number;
+    	this.number = number;
+    	this.robotType = spec.getPrefix();
+    	this.context = context;
+    	this.mailStore = context.getMailStore();
+    	this.typeStats = context.getRobotTypeStats(robotType);
+    	typeStats.incrementRobotCount();
+        /** The robot starts returning on the mailroom floor, which it reached before the first tick */
+        this.fleet = fleet;
+        if (fleet != null) {
+            this.slot = fleet.add(this, spec, typeStats);
+        } else {
+            this.slot = -1;
+            this.currentState = RobotState.RETURNING;
+            this.currentFloor = context.getBuilding().getMailroomLocationFloor();
+            this.deliveryItem = MailStore.NONE;
+        }
+        setOff(context.getClock().Time() - 1);
         this.delivery = delivery;
         this.mailPool = mailPool;
-        this.receivedDispatch = false;
-        this.deliveryCounter = 0;
-        this.TUBE_SIZE = TUBE_SIZE;
-        this.tube = new MailItem[TUBE_SIZE];
-        this.feeCharging = Boolean.parseBoolean(Configuration.getInstance().getProperty(
+        this.TUBE_SIZE = spec.getTubeCapacity();
+        this.tube = new int[TUBE_SIZE];
+        this.feeCharging = Boolean.parseBoolean(context.getConfiguration().getProperty(
                 Configuration.FEE_CHARGING_KEY));
+        this.chargeHandlerAdapter = context.getChargeHandlerAdapter();
+        this.routePlanner = RoutePlanner.fromConfiguration(context.getConfiguration());
+        this.stops = new int[TUBE_SIZE + 1];
 
     }
 
@@ -70,12 +112,44 @@ public abstract class Robot {
         return this.id;
     }
 
-    public MailItem getDeliveryItem() {
-        return this.deliveryItem;
+    public SimulationContext getContext() {
+        return this.context;
     }
 
-    public void setDeliveryItem(MailItem deliveryItem) {
-        this.deliveryItem = deliveryItem;
+    /**
+     * @return the index of the robot in Automail.getRobots()
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return the type prefix of the robot, e.g. "R"
+     */
+    public String getRobotType() {
+        return robotType;
+    }
+
+    /**
+     * @return the type of the robot
+     */
+    public RobotSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return the handle of the item in the robot's hand, MailStore.NONE if its hand is empty
+     */
+    public int getDeliveryItem() {
+        return fleet == null ? deliveryItem : fleet.hand[slot];
+    }
+
+    public void setDeliveryItem(int deliveryItem) {
+        if (fleet == null) {
+            this.deliveryItem = deliveryItem;
+        } else {
+            fleet.hand[slot] = deliveryItem;
+        }
     }
 
     public IMailDelivery getDelivery() {
@@ -83,39 +157,46 @@ public abstract class Robot {
     }
 
     public void tickDeliveryCounter() {
-        this.deliveryCounter++;
+        setDeliveryCounter(getDeliveryCounter() + 1);
     }
 
     public void resetDeliveryCounter() {
-        this.deliveryCounter = 0;
+        setDeliveryCounter(0);
     }
 
     public int getDeliveryCounter() {
-        return deliveryCounter;
+        return fleet == null ? deliveryCounter : fleet.deliveryCounter[slot];
+    }
+
+    private void setDeliveryCounter(int i) {
+        if (fleet == null) {
+            deliveryCounter = i;
+        } else {
+            fleet.deliveryCounter[slot] = i;
+        }
     }
 
     public void setCurrentTubeLength(int i) {
-        this.currentTubeLength = i;
+        if (fleet == null) {
+            currentTubeLength = i;
+        } else {
+            fleet.tubeLength[slot] = i;
+        }
     }
 
     public int getCurrentTubeLength() {
-        return currentTubeLength;
+        return fleet == null ? currentTubeLength : fleet.tubeLength[slot];
     }
 
     public RobotState getCurrentState() {
-        return this.current_state;
+        return fleet == null ? currentState : Fleet.STATES[fleet.state[slot]];
     }
 
+    /**
+     * @return the floor the robot is on at the end of the current tick
+     */
     public int getCurrentFloor() {
-        return this.current_floor;
-    }
-
-    public void incrementCurrentFloor(int increment) {
-        this.current_floor += increment;
-    }
-
-    public void decrementCurrentFloor(int decrement) {
-        this.current_floor -= decrement;
+        return floorAt(context.getClock().Time());
     }
 
     public MailPool getMailPool() {
@@ -123,23 +204,68 @@ public abstract class Robot {
     }
 
     public boolean getReceivedDispatch() {
-        return receivedDispatch;
+        return fleet == null ? receivedDispatch : fleet.receivedDispatch[slot];
+    }
+
+    private void setReceivedDispatch(boolean receivedDispatch) {
+        if (fleet == null) {
+            this.receivedDispatch = receivedDispatch;
+        } else {
+            fleet.receivedDispatch[slot] = receivedDispatch;
+        }
     }
 
     public void completedDispatch() {
-        this.receivedDispatch = false;
+        setReceivedDispatch(false);
     }
 
     public int getDestinationFloor() {
-        return this.destination_floor;
+        return fleet == null ? destinationFloor : fleet.destination[slot];
     }
 
     public void setDestinationFloor(int i) {
-        this.destination_floor = i;
+        if (fleet == null) {
+            destinationFloor = i;
+        } else {
+            fleet.destination[slot] = i;
+        }
     }
 
     public void setCurrentState(RobotState nextState) {
-        this.current_state = nextState;
+        if (fleet == null) {
+            currentState = nextState;
+        } else {
+            fleet.state[slot] = (byte) nextState.ordinal();
+        }
+    }
+
+    /**
+     * @return the floor the robot set off from, or is waiting on
+     */
+    private int getDepartureFloor() {
+        return fleet == null ? currentFloor : fleet.floor[slot];
+    }
+
+    private void setDepartureFloor(int floor) {
+        if (fleet == null) {
+            currentFloor = floor;
+        } else {
+            fleet.floor[slot] = floor;
+        }
+    }
+
+    /**
+     * @return the tick the robot set off at, after which it moves each tick
+     */
+    private int getDepartedAt() {
+        return fleet == null ? departedAt : fleet.departedAt[slot];
+    }
+
+    /**
+     * @return the tick by whose end the robot arrives at its target
+     */
+    private int getArrivesAt() {
+        return fleet == null ? arrivesAt : fleet.arrivesAt[slot];
     }
 
     
@@ -147,77 +273,368 @@ public abstract class Robot {
      * This is called when a robot is assigned the mail items and ready to dispatch for the delivery 
      */
     public void dispatch() {
-    	receivedDispatch = true;
+    	setReceivedDispatch(true);
+    	if (routePlanner != RoutePlanner.NONE) {
+    	    planRoute();
+    	}
+    	if (feeCharging) {
+    	    /** Look up the fees for the trip before setting off */
+    	    int deliveryItem = getDeliveryItem();
+    	    if (deliveryItem != MailStore.NONE) {
+    	        chargeHandlerAdapter.prefetchServiceFee(mailStore.getDestFloor(deliveryItem));
+    	    }
+    	    for (int i = 0; i < getCurrentTubeLength(); i++) {
+    	        chargeHandlerAdapter.prefetchServiceFee(mailStore.getDestFloor(tube[i]));
+    	    }
+    	}
+    }
+
+    /**
+     * Puts the loaded items into the order chosen by the route planner. Items are delivered from the hand first,
+     * then from the top of the tube down.
+     */
+    private void planRoute() {
+        int deliveryItem = getDeliveryItem();
+        int currentTubeLength = getCurrentTubeLength();
+        int count = 0;
+        if (deliveryItem != MailStore.NONE) {
+            stops[count++] = deliveryItem;
+        }
+        for (int i = currentTubeLength - 1; i >= 0; i--) {
+            stops[count++] = tube[i];
+        }
+        routePlanner.plan(stops, count, getCurrentFloor(), mailStore);
+        int next = 0;
+        if (deliveryItem != MailStore.NONE) {
+            setDeliveryItem(stops[next++]);
+        }
+        for (int i = currentTubeLength - 1; i >= 0; i--) {
+            tube[i] = stops[next++];
+        }
     }
 
     /**
      * This is called on every time step
      * @throws ExcessiveDeliveryException if robot delivers more than the capacity of the tube without refilling
      */
-    public abstract void operate() throws ExcessiveDeliveryException, Exception;
+    public void operate() throws ExcessiveDeliveryException, Exception {
+        if (getCurrentState() != RobotState.WAITING) {
+            incrementTimeOperated();
+        }
+        switch (getCurrentState()) {
+            /** This state is triggered when the robot is returning to the mailroom after a delivery */
+            case RETURNING:
+                /** If it reached the mailroom by the end of the last tick, then the robot should change state */
+                if (hasArrived()) {
+                    setDepartureFloor(context.getBuilding().getMailroomLocationFloor());
+                    /** Tell the sorter the robot is ready */
+                    mailPool.registerWaiting(this);
+                    changeState(RobotState.WAITING);
+                } else {
+                    /** If the robot is not at the mailroom floor yet, it is still on its way */
+                    break;
+                }
+            case WAITING:
+                /** If the StorageTube is ready and the Robot is waiting in the mailroom then start the delivery */
+                if (!isEmpty() && getReceivedDispatch()) {
+                    completedDispatch();
+                    resetDeliveryCounter(); // reset delivery counter
+                    setDestination();
+                    changeState(RobotState.DELIVERING);
+                }
+                break;
+            case DELIVERING:
+                if (hasArrived()) { // If already here drop off either way
+                    setDepartureFloor(getDestinationFloor());
+                    /** Delivery complete, report this to the simulator! */
+                    int delivered = takeNextItem();
+                    Charge charge = charge(delivered, spec.getMaintenanceRate());
+                    delivery.deliver(this, delivered, charge);
+                    tickDeliveryCounter();
+                    if (getDeliveryCounter() > getCapacity()) {  // Implies a simulation bug
+                        throw new ExcessiveDeliveryException();
+                    }
+                    /** Check if want to return, i.e. if there is nothing left to deliver */
+                    if (isEmpty()) {
+                        changeState(RobotState.RETURNING);
+                    } else {
+                        /** If there is another item, set the robot's route to the location to deliver the item */
+                        if (spec.getHandCapacity() > 0) {
+                            setDeliveryItem(popFromTube());
+                        }
+                        setDestination();
+                        changeState(RobotState.DELIVERING);
+                    }
+                }
+                /** Otherwise the robot is not at the destination yet, and is still on its way */
+                break;
+        }
+    }
+
+    /**
+     * @return the handle of the item the robot delivers next: the one in its hand, or if it has no hand the one
+     * at the top of its tube; MailStore.NONE if it carries nothing
+     */
+    private int nextItem() {
+        int deliveryItem = getDeliveryItem();
+        if (deliveryItem != MailStore.NONE) {
+            return deliveryItem;
+        }
+        int currentTubeLength = getCurrentTubeLength();
+        return currentTubeLength > 0 ? tube[currentTubeLength - 1] : MailStore.NONE;
+    }
+
+    /**
+     * Takes the item the robot delivers next out of its hand or tube
+     * @return the handle of the item
+     */
+    private int takeNextItem() {
+        int item = getDeliveryItem();
+        if (item != MailStore.NONE) {
+            setDeliveryItem(MailStore.NONE);
+            return item;
+        }
+        return popFromTube();
+    }
 
     /**
      * Sets the route for the robot
      */
-    public abstract void setDestination();
+    public void setDestination() {
+        setDestinationFloor(mailStore.getDestFloor(nextItem()));
+    }
+
+    /**
+     * @return the floor the robot is heading to: its destination when delivering, otherwise the mailroom
+     */
+    private int target() {
+        return getCurrentState() == RobotState.DELIVERING ? getDestinationFloor()
+                : context.getBuilding().getMailroomLocationFloor();
+    }
+
+    /**
+     * Starts a journey from the robot's floor to its target. The robot moves moveSpeed floors in each tick after
+     * the given one, and the last move takes it only as far as the target, so it arrives by the end of the tick
+     * worked out here.
+     * @param time the tick the robot sets off at
+     */
+    private void setOff(int time) {
+        int arrives = time + travelTicks(getDepartureFloor(), target());
+        if (fleet == null) {
+            departedAt = time;
+            arrivesAt = arrives;
+        } else {
+            fleet.departedAt[slot] = time;
+            fleet.arrivesAt[slot] = arrives;
+        }
+    }
+
+    /**
+     * @return true if the robot reached its target by the end of the last tick
+     */
+    private boolean hasArrived() {
+        return context.getClock().Time() > getArrivesAt();
+    }
+
+    /**
+     * @param time a tick no earlier than the one the robot set off at
+     * @return the floor the robot is on at the end of the tick
+     */
+    private int floorAt(int time) {
+        int from = getDepartureFloor();
+        if (getCurrentState() == RobotState.WAITING) {
+            return from;
+        }
+        int target = target();
+        if (time >= getArrivesAt()) {
+            return target;
+        }
+        int distance = Math.max(0, time - getDepartedAt()) * getMoveSpeed();
+        return target > from ? from + distance : from - distance;
+    }
+
+    /**
+     * @return the number of floors this robot moves per tick
+     */
+    protected int getMoveSpeed() {
+        return spec.getMoveSpeed();
+    }
+
+    public void incrementTimeOperated() {
+        typeStats.addTimeOperated(1);
+    }
 
     /**
-     * Generic function that moves the robot towards the destination
-     * @param destination the floor towards which the robot is moving
+     * Charges for delivering an item. The service fee is looked up whenever fees are charged, but the Charge is
+     * only made if the event sink looks at it.
+     * @param mailItem the handle of the delivered item
+     * @param typeBasedRate the maintenance charge rate of this robot's type
+     * @return the charge, or null if fees are not charged or the event sink does not need it
      */
-    protected void moveTowards(int destination, int moveSpeed) {
-        /** If Robot cannot reach destination (going up) in one step, add full possible movement **/
-        if (getCurrentFloor() < destination && (getCurrentFloor() + moveSpeed < destination)) {
-            incrementCurrentFloor(moveSpeed);
+    private Charge charge(int mailItem, double typeBasedRate) {
+        if (!feeCharging) {
+            return null;
         }
-        /** If Robot can reach destination (going up) in one step, add as much movement as necessary **/
-        else if (getCurrentFloor() < destination && (getCurrentFloor() + moveSpeed < destination)) {
-            incrementCurrentFloor(destination - getCurrentFloor());
+        int floor = mailStore.getDestFloor(mailItem);
+        if (!context.getEventSink().needsDetails()) {
+            chargeHandlerAdapter.calculateServiceFee(floor);
+            return null;
         }
-        /** If Robot cannot reach destination (going down) in one step, minus full possible movement **/
-        else if (getCurrentFloor() > destination && (getCurrentFloor() - moveSpeed > destination)) {
-            decrementCurrentFloor(moveSpeed);
+        return chargeHandlerAdapter.calculateCharge(floor, calcAvgOperatingTime(), typeBasedRate);
+    }
+
+    /**
+     * @return the average lifetime operating time of all robots of this robot's type
+     */
+    public double calcAvgOperatingTime() {
+        return typeStats.calcAvgOperatingTime();
+    }
+
+    /**
+     * @return the number of ticks this robot will spend only moving before operate() has something else to do,
+     * or Integer.MAX_VALUE if it is waiting in the mailroom for a dispatch
+     */
+    public int ticksUntilActive() {
+        switch (getCurrentState()) {
+            case RETURNING:
+            case DELIVERING:
+                return Math.max(0, getArrivesAt() + 1 - context.getClock().Time());
+            default:
+                return getReceivedDispatch() ? 0 : Integer.MAX_VALUE;
         }
-        /** If Robot can reach destination (going down) in one step, add as much movement as necessary **/
-        else {
-            decrementCurrentFloor(getCurrentFloor() - destination);
+    }
+
+    /**
+     * Counts the operating time of the robot as if operate() were called for the given number of ticks, which must
+     * not exceed ticksUntilActive(); where it is follows from its journey
+     * @param ticks the number of ticks to skip
+     */
+    public void skipTicks(int ticks) {
+        if (ticks == 0 || getCurrentState() == RobotState.WAITING) {
+            return;
         }
+        assert(ticks <= ticksUntilActive());
+        typeStats.addTimeOperated(ticks);
+    }
+
+    /**
+     * @return the number of ticks the robot needs to travel between the floors
+     */
+    private int travelTicks(int from, int to) {
+        int distance = Math.abs(to - from);
+        return (distance + getMoveSpeed() - 1) / getMoveSpeed();
     }
+
     public String getIdTube() {
-    	return String.format("%s(%1d)", this.id, currentTubeLength);
+    	return String.format("%s(%1d)", this.id, getCurrentTubeLength());
     }
     
     /**
      * Prints out the change in state
      * @param nextState the state to which the robot is transitioning
      */
-    protected abstract void changeState(RobotState nextState);
+    protected void changeState(RobotState nextState) {
+        assert(!(spec.getHandCapacity() > 0 && getDeliveryItem() == MailStore.NONE && getCurrentTubeLength() != 0));
+        RobotState from = getCurrentState();
+        if (from != nextState) {
+            context.getEventSink().stateChanged(context.getClock().Time(), this, from, nextState);
+        }
+        setCurrentState(nextState);
+        setOff(context.getClock().Time());
+        if (nextState == RobotState.DELIVERING) {
+            context.getEventSink().deliveryStarted(context.getClock().Time(), this, context.eventItem(nextItem()));
+        }
+    }
 
-	public MailItem[] getTube() {
+	/**
+	 * @return the handles of the items in the tube, bottom first; only the first getCurrentTubeLength() are in use
+	 */
+	public int[] getTube() {
 		return tube;
 	}
 
-	public abstract boolean isEmpty();
+	/**
+	 * @return true if the robot carries nothing
+	 */
+	public boolean isEmpty() {
+	    return getItemCount() == 0;
+	}
 
-	public void addToHand(MailItem mailItem) throws ItemTooHeavyException{}
+	public void addToHand(int mailItem) throws ItemTooHeavyException {
+	    assert(spec.getHandCapacity() > 0 && getDeliveryItem() == MailStore.NONE);
+	    setDeliveryItem(mailItem);
+	    if (mailStore.getWeight(mailItem) > spec.getMaxWeight()) throw new ItemTooHeavyException();
+	}
 
 
-	public void addToTube(MailItem mailItem) throws ItemTooHeavyException {
+	public void addToTube(int mailItem) throws ItemTooHeavyException {
 	    assert(tube != null);
-	    assert(currentTubeLength <= TUBE_SIZE);
+	    assert(getCurrentTubeLength() <= TUBE_SIZE);
+	    int currentTubeLength = getCurrentTubeLength();
 	    tube[currentTubeLength] = mailItem;
-	    currentTubeLength++;
-	    if (mailItem.weight > INDIVIDUAL_MAX_WEIGHT) throw new ItemTooHeavyException();
+	    setCurrentTubeLength(currentTubeLength + 1);
+	    if (mailStore.getWeight(mailItem) > spec.getMaxWeight()) throw new ItemTooHeavyException();
     };
 
-	public MailItem popFromTube() {
-	    MailItem item = tube[currentTubeLength - 1];
-	    currentTubeLength--;
-	    return item;
+	public int popFromTube() {
+	    int currentTubeLength = getCurrentTubeLength() - 1;
+	    setCurrentTubeLength(currentTubeLength);
+	    return tube[currentTubeLength];
     }
 
-	public abstract void loadItem(MailItem mailItem) throws ItemTooHeavyException;
+	/**
+	 * Loads an item into the robot's hand if it is empty, otherwise into its tube if there is room
+	 * @param mailItem the handle of the item to load
+	 */
+	public void loadItem(int mailItem) throws ItemTooHeavyException {
+	    if (spec.getHandCapacity() > 0 && getDeliveryItem() == MailStore.NONE) {
+	        addToHand(mailItem);
+	    } else if (getCurrentTubeLength() < TUBE_SIZE) {
+	        addToTube(mailItem);
+	    }
+	}
+
+	public boolean isFull() {
+	    return getItemCount() == getCapacity();
+	}
+
+	/**
+	 * Puts the robot back into a state recorded earlier in the run, as when recovering from a journal
+	 * @param state the state the robot was in
+	 * @param floor the floor it was on
+	 * @param destination the floor it was heading to
+	 * @param deliveryCounter the deliveries made since it was last dispatched
+	 * @param receivedDispatch whether it had been dispatched and not yet set off
+	 * @param deliveryItem the handle of the item in its hand, or MailStore.NONE
+	 * @param tubeItems the handles of the items in its tube, bottom first
+	 * @param time the tick at whose end the robot was in this state
+	 */
+	public void restore(RobotState state, int floor, int destination, int deliveryCounter, boolean receivedDispatch,
+	                    int deliveryItem, int[] tubeItems, int time) {
+	    assert(tubeItems.length <= TUBE_SIZE);
+	    setCurrentState(state);
+	    setDepartureFloor(floor);
+	    setDestinationFloor(destination);
+	    setDeliveryCounter(deliveryCounter);
+	    setReceivedDispatch(receivedDispatch);
+	    setDeliveryItem(deliveryItem);
+	    System.arraycopy(tubeItems, 0, tube, 0, tubeItems.length);
+	    setCurrentTubeLength(tubeItems.length);
+	    setOff(time);
+	}
+
+	/**
+	 * @return the number of items the robot is carrying
+	 */
+	public int getItemCount() {
+	    return (getDeliveryItem() == MailStore.NONE ? 0 : 1) + getCurrentTubeLength();
+	}
 
-	public abstract boolean isFull();
+	/**
+	 * @return the number of items the robot can carry on one trip
+	 */
+	public int getCapacity() {
+	    return spec.getCapacity();
+	}
 
 }
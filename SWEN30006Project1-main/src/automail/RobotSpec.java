@@ -0,0 +1,147 @@
+package automail;
+
+import java.util.Arrays;
+
+import util.Configuration;
+
+/**
+ * The capabilities of a type of robot. Every robot runs the same state machine in Robot, so a type is only its
+ * speed, what it carries and its maintenance rate.
+ *
+ * A robot with a hand carries one item in it and delivers it first, then moves the top item of its tube to its
+ * hand. A robot without one delivers straight from the top of its tube.
+ *
+ * The regular, fast and bulk robots are presets. A type named in Robot_Types is the preset of that name unless
+ * a <name>_Robot property defines it, and <name>_Robots robots of it are made.
+ */
+public final class RobotSpec {
+
+    public static final int DEFAULT_MAX_WEIGHT = 2000;
+
+    public static final RobotSpec REGULAR = new RobotSpec("Regular", "R", 1, 1, 1, DEFAULT_MAX_WEIGHT, 0.025);
+    public static final RobotSpec FAST = new RobotSpec("Fast", "F", 3, 1, 0, DEFAULT_MAX_WEIGHT, 0.05);
+    public static final RobotSpec BULK = new RobotSpec("Bulk", "B", 1, 0, 5, DEFAULT_MAX_WEIGHT, 0.01);
+
+    private static final RobotSpec[] PRESETS = {REGULAR, FAST, BULK};
+
+    private final String name;
+    private final String prefix;
+    private final int moveSpeed;
+    private final int handCapacity;
+    private final int tubeCapacity;
+    private final int maxWeight;
+    private final double maintenanceRate;
+
+    /**
+     * @param name the name of the type, as in Robot_Types
+     * @param prefix the prefix of the robots' ids, which also identifies the type in the log and in snapshots
+     * @param moveSpeed the number of floors the robots move per tick
+     * @param handCapacity the number of items carried in hand, 0 or 1
+     * @param tubeCapacity the number of items carried in the tube
+     * @param maxWeight the heaviest item, in grams, the robots can carry
+     * @param maintenanceRate the maintenance charge rate of the type
+     */
+    public RobotSpec(String name, String prefix, int moveSpeed, int handCapacity, int tubeCapacity, int maxWeight,
+                     double maintenanceRate) {
+        if (moveSpeed < 1) {
+            throw new IllegalArgumentException(name + " robots must move at least one floor per tick");
+        }
+        if (handCapacity < 0 || handCapacity > 1) {
+            throw new IllegalArgumentException(name + " robots must have a hand capacity of 0 or 1");
+        }
+        if (tubeCapacity < 0 || handCapacity + tubeCapacity == 0) {
+            throw new IllegalArgumentException(name + " robots must be able to carry an item");
+        }
+        this.name = name;
+        this.prefix = prefix;
+        this.moveSpeed = moveSpeed;
+        this.handCapacity = handCapacity;
+        this.tubeCapacity = tubeCapacity;
+        this.maxWeight = maxWeight;
+        this.maintenanceRate = maintenanceRate;
+    }
+
+    /**
+     * @param name the name of the type
+     * @param value the id prefix, move speed, hand capacity, tube capacity, maximum item weight and maintenance
+     *              rate, separated by commas, e.g. "D,2,1,3,2000,0.04"
+     */
+    public static RobotSpec parse(String name, String value) {
+        String[] fields = value.split(",");
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("Expected prefix,speed,hand,tube,max weight,rate for " + name
+                    + " robots: " + value);
+        }
+        return new RobotSpec(name, fields[0].trim(), Integer.parseInt(fields[1].trim()),
+                Integer.parseInt(fields[2].trim()), Integer.parseInt(fields[3].trim()),
+                Integer.parseInt(fields[4].trim()), Double.parseDouble(fields[5].trim()));
+    }
+
+    /**
+     * @return the types listed in Robot_Types, in the order their robots are numbered
+     * @throws IllegalArgumentException if a type is neither a preset nor defined, or two types share a prefix
+     */
+    public static RobotSpec[] fromConfiguration(Configuration configuration) {
+        String[] names = configuration.getProperty(Configuration.ROBOT_TYPES_KEY).split(",");
+        RobotSpec[] specs = new RobotSpec[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            String value = configuration.getProperty(Configuration.robotSpecKey(name));
+            specs[i] = value != null ? parse(name, value) : preset(name);
+            for (int j = 0; j < i; j++) {
+                if (specs[j].prefix.equals(specs[i].prefix)) {
+                    throw new IllegalArgumentException(specs[j].name + " and " + name + " robots share the prefix "
+                            + specs[i].prefix);
+                }
+            }
+        }
+        return specs;
+    }
+
+    private static RobotSpec preset(String name) {
+        return Arrays.stream(PRESETS).filter(spec -> spec.name.equals(name)).findFirst().orElseThrow(() ->
+                new IllegalArgumentException("Unknown robot type " + name + ", define it with "
+                        + Configuration.robotSpecKey(name)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public int getMoveSpeed() {
+        return moveSpeed;
+    }
+
+    public int getHandCapacity() {
+        return handCapacity;
+    }
+
+    public int getTubeCapacity() {
+        return tubeCapacity;
+    }
+
+    /**
+     * @return the number of items the robots can carry on one trip
+     */
+    public int getCapacity() {
+        return handCapacity + tubeCapacity;
+    }
+
+    public int getMaxWeight() {
+        return maxWeight;
+    }
+
+    public double getMaintenanceRate() {
+        return maintenanceRate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(%s): speed %d | hand %d | tube %d | max weight %d | rate %s", name, prefix,
+                moveSpeed, handCapacity, tubeCapacity, maxWeight, maintenanceRate);
+    }
+}
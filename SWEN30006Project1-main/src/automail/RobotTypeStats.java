@@ -0,0 +1,40 @@
+package automail;
+
+/**
+ * Lifetime operating statistics shared by all robots of one type within a simulation run
+ */
+public class RobotTypeStats {
+
+    private int numBots = 0;
+    private int totalTimeOperated = 0;
+
+    public void incrementRobotCount() {
+        numBots++;
+    }
+
+    public void addTimeOperated(int ticks) {
+        totalTimeOperated += ticks;
+    }
+
+    /**
+     * @param ticks the operating time of all robots of this type recorded earlier in the run
+     */
+    public void restoreTimeOperated(int ticks) {
+        totalTimeOperated = ticks;
+    }
+
+    /**
+     * @return the average lifetime operating time of all robots of this type
+     */
+    public double calcAvgOperatingTime() {
+        return totalTimeOperated / (double) numBots;
+    }
+
+    public int getNumBots() {
+        return numBots;
+    }
+
+    public int getTotalTimeOperated() {
+        return totalTimeOperated;
+    }
+}
@@ -0,0 +1,36 @@
+package automail;
+
+import util.Configuration;
+
+/**
+ * Orders the items a robot has been loaded with into the order it will deliver them.
+ */
+public interface RoutePlanner {
+
+    /** Keeps the order the items were loaded in */
+    RoutePlanner NONE = (stops, count, startFloor, mailStore) -> {};
+
+    /**
+     * Reorders stops[0, count) into delivery order
+     * @param stops the handles of the loaded items, in the order they would be delivered without planning
+     * @param count the number of items loaded
+     * @param startFloor the floor the trip starts from
+     * @param mailStore holds the loaded items
+     */
+    void plan(int[] stops, int count, int startFloor, MailStore mailStore);
+
+    /**
+     * @return the planner selected by the Route_Planner property: none or scan
+     */
+    static RoutePlanner fromConfiguration(Configuration configuration) {
+        String planner = configuration.getProperty(Configuration.ROUTE_PLANNER_KEY);
+        switch (planner) {
+            case "none":
+                return NONE;
+            case "scan":
+                return new ScanRoutePlanner();
+            default:
+                throw new IllegalArgumentException("Unknown " + Configuration.ROUTE_PLANNER_KEY + ": " + planner);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package automail;
+
+/**
+ * Plans each trip as an elevator sweep: every stop on one side of the start floor in order of distance, then
+ * every stop on the other side. The robot then covers each floor of the trip at most twice, once on the way
+ * out and once on the way back, whatever order the items were loaded in. The side whose furthest stop is
+ * nearer is served first, so more items are delivered before the long leg of the trip.
+ */
+public class ScanRoutePlanner implements RoutePlanner {
+
+    @Override
+    public void plan(int[] stops, int count, int startFloor, MailStore mailStore) {
+        int highest = startFloor;
+        int lowest = startFloor;
+        for (int i = 0; i < count; i++) {
+            highest = Math.max(highest, mailStore.getDestFloor(stops[i]));
+            lowest = Math.min(lowest, mailStore.getDestFloor(stops[i]));
+        }
+        boolean upFirst = highest - startFloor <= startFloor - lowest;
+        // Insertion sort, trips are only a handful of stops long and it keeps equal stops in loading order
+        for (int i = 1; i < count; i++) {
+            int stop = stops[i];
+            int key = sweepPosition(mailStore.getDestFloor(stop), startFloor, upFirst);
+            int j = i - 1;
+            while (j >= 0 && sweepPosition(mailStore.getDestFloor(stops[j]), startFloor, upFirst) > key) {
+                stops[j + 1] = stops[j];
+                j--;
+            }
+            stops[j + 1] = stop;
+        }
+    }
+
+    /**
+     * @return the position of the floor along the sweep. Floors on the first side come before those on the
+     * second side, nearer floors before further ones.
+     */
+    private static int sweepPosition(int floor, int startFloor, boolean upFirst) {
+        int distance = Math.abs(floor - startFloor);
+        boolean firstSide = floor == startFloor || (floor > startFloor) == upFirst;
+        return firstSide ? distance : Integer.MAX_VALUE / 2 + distance;
+    }
+}
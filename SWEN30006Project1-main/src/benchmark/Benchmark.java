@@ -0,0 +1,68 @@
+package benchmark;
+
+/**
+ * A minimal benchmark harness. Each iteration sets up fresh state outside the timed region, then times a run
+ * over that state. Warmup iterations let the JIT settle before the measured iterations are recorded.
+ */
+public class Benchmark {
+
+    /**
+     * A timed run over state prepared by a Trial
+     */
+    public interface Run {
+        /**
+         * @return the number of operations performed
+         */
+        long run() throws Throwable;
+    }
+
+    /**
+     * Prepares the state for one iteration
+     */
+    public interface Trial {
+        Run setUp() throws Throwable;
+    }
+
+    /** Results are folded in here so the JIT cannot discard the work being measured */
+    public static volatile long blackhole;
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+
+    public Benchmark(int warmupIterations, int measurementIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+    }
+
+    public static void printHeader() {
+        System.out.printf("%-40s %12s %14s %12s%n", "Benchmark", "Param", "ns/op", "error");
+    }
+
+    /**
+     * Runs and reports a benchmark
+     * @param name the benchmark name
+     * @param param the parameter the benchmark is run with
+     * @param trial prepares each iteration
+     * @return the mean time per operation in nanoseconds
+     */
+    public double measure(String name, String param, Trial trial) throws Throwable {
+        for (int i = 0; i < warmupIterations; i++) {
+            trial.setUp().run();
+        }
+        double[] samples = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            Run run = trial.setUp();
+            long start = System.nanoTime();
+            long ops = run.run();
+            samples[i] = (System.nanoTime() - start) / (double) Math.max(1, ops);
+        }
+        double mean = 0;
+        for (double sample : samples) mean += sample;
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) variance += (sample - mean) * (sample - mean);
+        double error = samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0;
+        System.out.printf("%-40s %12s %14.1f %12.1f%n", name, param, mean, error);
+        return mean;
+    }
+}
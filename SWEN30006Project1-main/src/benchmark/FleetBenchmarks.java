@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.util.HashMap;
+
+import automail.Automail;
+import automail.MailPool;
+import simulation.Clock;
+import simulation.MailGenerator;
+import simulation.Simulation;
+import simulation.SimulationContext;
+import util.Configuration;
+import util.ReportDelivery;
+
+/**
+ * Compares the ticks per second of the two fleet layouts as the fleet grows: objects, where each robot holds its
+ * own state in its fields, and arrays, where the state of all robots is held in parallel arrays and advanced in one
+ * pass. Each run ticks a fresh fleet of equal numbers of regular, fast and bulk robots through TICKS ticks, with
+ * enough mail arriving to keep most of the robots busy. Pass the largest fleet to run as the first argument.
+ */
+public class FleetBenchmarks {
+
+    private static final int TICKS = 300;
+    private static final int ITEMS_PER_ROBOT = 5;
+    private static final int[] FLEET_SIZES = {1_000, 10_000, 100_000};
+    private static final String[] LAYOUTS = {"objects", "arrays"};
+
+    public static void main(String[] args) throws Throwable {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : Integer.MAX_VALUE;
+        Benchmark benchmark = new Benchmark(3, 5);
+        Benchmark.printHeader();
+        double[][] nanosPerTick = new double[FLEET_SIZES.length][LAYOUTS.length];
+        for (int i = 0; i < FLEET_SIZES.length && FLEET_SIZES[i] <= largest; i++) {
+            for (int j = 0; j < LAYOUTS.length; j++) {
+                int robots = FLEET_SIZES[i];
+                String layout = LAYOUTS[j];
+                nanosPerTick[i][j] = benchmark.measure("Fleet tick " + layout, String.valueOf(robots),
+                        () -> tick(layout, robots));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%12s %14s %14s %10s%n", "Robots", "objects t/s", "arrays t/s", "speedup");
+        for (int i = 0; i < FLEET_SIZES.length && FLEET_SIZES[i] <= largest; i++) {
+            System.out.printf("%12d %14.1f %14.1f %9.2fx%n", FLEET_SIZES[i], 1e9 / nanosPerTick[i][0],
+                    1e9 / nanosPerTick[i][1], nanosPerTick[i][0] / nanosPerTick[i][1]);
+        }
+    }
+
+    /**
+     * Runs TICKS full ticks of a fleet in the given layout
+     */
+    private static Benchmark.Run tick(String layout, int robots) throws Exception {
+        Configuration configuration = MailroomBenchmarks.configuration(true);
+        configuration.setProperty(Configuration.FLEET_LAYOUT_KEY, layout);
+        /** Mail arrives over the first TICKS ticks, so the pool never runs dry while measuring */
+        configuration.setProperty(Configuration.MAIL_RECEIVING_LENGTH_KEY, String.valueOf(TICKS));
+        SimulationContext context = MailroomBenchmarks.context(configuration);
+        MailPool mailPool = new MailPool(context);
+        ReportDelivery delivery = new ReportDelivery(context);
+        int perType = robots / 3;
+        Automail automail = MailroomBenchmarks.automail(context, mailPool, delivery,
+                perType + "/" + perType + "/" + (robots - 2 * perType));
+        HashMap<Boolean, Integer> seed = new HashMap<>();
+        seed.put(true, 30006);
+        MailGenerator mailGenerator = new MailGenerator(context, ITEMS_PER_ROBOT * robots, 2000, mailPool, seed);
+        mailGenerator.generateAllMail();
+        Clock clock = context.getClock();
+        return () -> {
+            for (int i = 0; i < TICKS && delivery.getDeliveredCount() != mailGenerator.MAIL_TO_CREATE; i++) {
+                Simulation.runTick(automail, mailGenerator);
+                clock.Tick();
+            }
+            Benchmark.blackhole += delivery.getDeliveredCount();
+            return clock.Time();
+        };
+    }
+}
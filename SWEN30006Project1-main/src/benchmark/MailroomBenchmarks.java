@@ -0,0 +1,245 @@
+package benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+import automail.Automail;
+import automail.ChargeHandlerAdapterModem;
+import automail.ConcurrentMailPool;
+import automail.MailPool;
+import automail.Robot;
+import simulation.Clock;
+import simulation.MailGenerator;
+import simulation.Simulation;
+import simulation.SimulationContext;
+import simulation.SimulationEventSink;
+import util.Configuration;
+import util.ReportDelivery;
+
+/**
+ * Benchmarks for the mailroom hot paths. The wifi modem is replaced by a stub returning a fixed fee per floor,
+ * so the numbers do not depend on the modem and the benchmarks run anywhere.
+ * Pass addToPool, concurrentAddToPool, loadItemsToRobot, tick, deliver or formSummaryString as the first
+ * argument to run only that benchmark.
+ */
+public class MailroomBenchmarks {
+
+    private static final int FLOORS = 50;
+    private static final int SEED = 30006;
+
+    public static void main(String[] args) throws Throwable {
+        String filter = args.length > 0 ? args[0] : "";
+        Benchmark benchmark = new Benchmark(10, 20);
+        Benchmark.printHeader();
+
+        for (int poolSize : new int[] {1_000, 10_000, 100_000}) {
+            if ("addToPool".startsWith(filter)) {
+                benchmark.measure("MailPool.addToPool", String.valueOf(poolSize), () -> addToPool(poolSize));
+            }
+        }
+        for (int producers : new int[] {1, 2, 4, 8}) {
+            if ("concurrentAddToPool".startsWith(filter)) {
+                benchmark.measure("ConcurrentMailPool.addToPool", producers + " threads",
+                        () -> concurrentAddToPool(producers, 400_000));
+            }
+        }
+        for (String fleet : new String[] {"10/0/0", "0/10/0", "0/0/10", "10/10/10"}) {
+            if ("loadItemsToRobot".startsWith(filter)) {
+                benchmark.measure("MailPool.loadItemsToRobot", fleet, () -> loadItemsToRobot(fleet));
+            }
+        }
+        for (String fleet : new String[] {"10/0/0", "0/10/0", "0/0/10", "10/10/10", "100/100/100"}) {
+            if ("tick".startsWith(filter)) {
+                benchmark.measure("Robot.operate tick", fleet, () -> tick(fleet));
+            }
+        }
+        if ("deliver".startsWith(filter)) {
+            benchmark.measure("ReportDelivery.deliver", "10000", () -> deliver(10_000));
+        }
+        if ("formSummaryString".startsWith(filter)) {
+            benchmark.measure("formSummaryString", "10000", () -> formSummaryString(10_000));
+        }
+    }
+
+    /**
+     * @return a configuration for the benchmarks that does not need automail.properties
+     */
+    static Configuration configuration(boolean feeCharging) {
+        Configuration configuration = Configuration.withDefaults();
+        configuration.setProperty(Configuration.N_FLOORS_KEY, String.valueOf(FLOORS));
+        configuration.setProperty(Configuration.LOWEST_FLOOR_KEY, "1");
+        configuration.setProperty(Configuration.MAILROOM_LOCATION_FLOOR_KEY, "1");
+        configuration.setProperty(Configuration.MAIL_RECEIVING_LENGTH_KEY, "1000");
+        configuration.setProperty(Configuration.FEE_CHARGING_KEY, String.valueOf(feeCharging));
+        configuration.setProperty(Configuration.FEE_CACHE_TTL_KEY, "-1");
+        return configuration;
+    }
+
+    /**
+     * @return a context whose fees come from the stub modem
+     */
+    static SimulationContext context(boolean feeCharging) {
+        return context(configuration(feeCharging));
+    }
+
+    /**
+     * @return a context with the given configuration whose fees come from the stub modem
+     */
+    static SimulationContext context(Configuration configuration) {
+        SimulationContext context = new SimulationContext(configuration, SimulationEventSink.NONE);
+        context.setChargeHandlerAdapter(stubModem());
+        return context;
+    }
+
+    static ChargeHandlerAdapterModem stubModem() {
+        return new ChargeHandlerAdapterModem(floor -> floor % 7 == 0 ? -1 : 0.5 + floor * 0.25);
+    }
+
+    /**
+     * @param fleet the number of regular, fast and bulk robots as "R/F/B"
+     */
+    static Automail automail(SimulationContext context, MailPool mailPool, ReportDelivery delivery, String fleet)
+            throws Exception {
+        String[] counts = fleet.split("/");
+        return new Automail(context, mailPool, delivery, Integer.parseInt(counts[0]), Integer.parseInt(counts[1]),
+                Integer.parseInt(counts[2]));
+    }
+
+    static int[] mail(SimulationContext context, int count) {
+        java.util.Random random = new java.util.Random(SEED);
+        int[] mail = new int[count];
+        for (int i = 0; i < count; i++) {
+            mail[i] = context.getMailStore().put(context.nextMailId(), 1 + random.nextInt(FLOORS), 1,
+                    random.nextInt(2000), 10 * (1 + random.nextInt(10)));
+        }
+        return mail;
+    }
+
+    private static Benchmark.Run addToPool(int poolSize) {
+        SimulationContext context = context(false);
+        int[] mail = mail(context, poolSize);
+        MailPool mailPool = new MailPool(context);
+        return () -> {
+            for (int mailItem : mail) {
+                mailPool.addToPool(mailItem);
+            }
+            Benchmark.blackhole += mailPool.size();
+            return mail.length;
+        };
+    }
+
+    /**
+     * Adds the mail from several producer threads at once while this thread keeps draining the pool, as the
+     * simulation thread would when loading robots. The time per item falls as producers are added if
+     * ingestion scales.
+     */
+    private static Benchmark.Run concurrentAddToPool(int producers, int count) throws Exception {
+        SimulationContext context = context(false);
+        ConcurrentMailPool mailPool = new ConcurrentMailPool(context);
+        int[] mail = mail(context, count);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            int from = count * i / producers;
+            int to = count * (i + 1) / producers;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = from; j < to; j++) {
+                    mailPool.addToPool(mail[j]);
+                }
+            });
+            threads[i].start();
+        }
+        return () -> {
+            start.countDown();
+            for (Thread thread : threads) {
+                while (thread.isAlive()) {
+                    mailPool.drain();
+                }
+                thread.join();
+            }
+            mailPool.drain();
+            if (mailPool.size() != count) {
+                throw new IllegalStateException("Lost mail: " + mailPool.size() + " of " + count);
+            }
+            Benchmark.blackhole += mailPool.size();
+            return count;
+        };
+    }
+
+    /**
+     * Loads every robot of the fleet once from a full pool
+     */
+    private static Benchmark.Run loadItemsToRobot(String fleet) throws Throwable {
+        SimulationContext context = context(false);
+        MailPool mailPool = new MailPool(context);
+        ReportDelivery delivery = new ReportDelivery(context);
+        Automail automail = automail(context, mailPool, delivery, fleet);
+        for (int mailItem : mail(context, 10 * automail.getRobots().length)) {
+            mailPool.addToPool(mailItem);
+        }
+        for (Robot robot : automail.getRobots()) {
+            robot.operate(); // register as waiting
+        }
+        return () -> {
+            mailPool.loadItemsToRobot();
+            Benchmark.blackhole += mailPool.size();
+            return automail.getRobots().length;
+        };
+    }
+
+    /**
+     * Runs full ticks: arrivals, loading and every robot operating
+     */
+    private static Benchmark.Run tick(String fleet) throws Exception {
+        SimulationContext context = context(true);
+        MailPool mailPool = new MailPool(context);
+        ReportDelivery delivery = new ReportDelivery(context);
+        Automail automail = automail(context, mailPool, delivery, fleet);
+        HashMap<Boolean, Integer> seed = new HashMap<>();
+        seed.put(true, SEED);
+        MailGenerator mailGenerator = new MailGenerator(context, 20 * automail.getRobots().length, 2000, mailPool, seed);
+        mailGenerator.generateAllMail();
+        Clock clock = context.getClock();
+        int ticks = 2000;
+        return () -> {
+            for (int i = 0; i < ticks && delivery.getDeliveredCount() != mailGenerator.MAIL_TO_CREATE; i++) {
+                Simulation.runTick(automail, mailGenerator);
+                clock.Tick();
+            }
+            Benchmark.blackhole += delivery.getDeliveredCount();
+            return clock.Time();
+        };
+    }
+
+    private static Benchmark.Run deliver(int count) throws Exception {
+        SimulationContext context = context(false);
+        MailPool mailPool = new MailPool(context);
+        ReportDelivery delivery = new ReportDelivery(context);
+        Robot robot = automail(context, mailPool, delivery, "1/0/0").getRobots()[0];
+        int[] mail = mail(context, count);
+        return () -> {
+            for (int mailItem : mail) {
+                delivery.deliver(robot, mailItem, null);
+            }
+            Benchmark.blackhole += delivery.getDeliveredCount();
+            return mail.length;
+        };
+    }
+
+    private static Benchmark.Run formSummaryString(int count) {
+        ChargeHandlerAdapterModem chargeHandlerAdapter = stubModem();
+        return () -> {
+            long length = 0;
+            for (int i = 0; i < count; i++) {
+                length += chargeHandlerAdapter.formSummaryString(1 + i % FLOORS, i * 0.5, 0.025).length();
+            }
+            Benchmark.blackhole += length;
+            return count;
+        };
+    }
+}
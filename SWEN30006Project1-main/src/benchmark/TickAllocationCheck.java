@@ -0,0 +1,94 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+import automail.Automail;
+import automail.MailPool;
+import simulation.Clock;
+import simulation.MailGenerator;
+import simulation.Simulation;
+import simulation.SimulationContext;
+import util.Configuration;
+import util.ReportDelivery;
+
+/**
+ * Checks that a tick allocates nothing once the run has settled, with logging off and fees charged. Each fleet
+ * and dispatch policy is run to completion a few times to let the JIT settle, then once more with the bytes
+ * allocated by the simulation thread counted from the end of the first SETTLE_TICKS ticks, over which the pool's
+ * buckets and the delivered set grow to their working size. The check fails, exiting with an exception, if the
+ * remaining ticks allocate more than BUDGET_BYTES_PER_TICK on average.
+ */
+public class TickAllocationCheck {
+
+    private static final int SETTLE_TICKS = 200;
+    private static final double BUDGET_BYTES_PER_TICK = 8;
+    private static final int WARMUP_RUNS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Throwable {
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            throw new IllegalStateException("This JVM does not count allocated bytes per thread");
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        System.out.printf("%-40s %12s %10s %14s%n", "Check", "Param", "ticks", "bytes/tick");
+        boolean failed = false;
+        for (String policy : new String[] {"highest_floor", "cost", "batching"}) {
+            for (String fleet : new String[] {"10/0/0", "0/10/0", "0/0/10", "10/10/10"}) {
+                for (int i = 0; i < WARMUP_RUNS; i++) {
+                    run(policy, fleet);
+                }
+                long[] measured = run(policy, fleet);
+                double perTick = measured[0] / (double) Math.max(1, measured[1]);
+                boolean over = perTick > BUDGET_BYTES_PER_TICK;
+                failed |= over;
+                System.out.printf("%-40s %12s %10d %14.1f%s%n", "Tick allocation " + policy, fleet, measured[1],
+                        perTick, over ? "  over budget" : "");
+            }
+        }
+        if (failed) {
+            throw new IllegalStateException("A settled tick allocated more than " + BUDGET_BYTES_PER_TICK
+                    + " bytes on average");
+        }
+    }
+
+    /**
+     * Runs a simulation to completion
+     * @return the bytes allocated after the settling ticks, and the number of ticks they were counted over
+     */
+    private static long[] run(String policy, String fleet) throws Throwable {
+        Configuration configuration = MailroomBenchmarks.configuration(true);
+        configuration.setProperty(Configuration.DISPATCH_POLICY_KEY, policy.equals("cost") ? "cost" : "highest_floor");
+        if (policy.equals("batching")) {
+            configuration.setProperty(Configuration.BATCH_MAX_WAIT_KEY, "5");
+        }
+        SimulationContext context = MailroomBenchmarks.context(configuration);
+        MailPool mailPool = new MailPool(context);
+        ReportDelivery delivery = new ReportDelivery(context);
+        Automail automail = MailroomBenchmarks.automail(context, mailPool, delivery, fleet);
+        HashMap<Boolean, Integer> seed = new HashMap<>();
+        seed.put(true, 30006);
+        MailGenerator mailGenerator = new MailGenerator(context, 20 * automail.getRobots().length, 2000, mailPool, seed);
+        mailGenerator.generateAllMail();
+        /** Time the ticks as the simulation does, though the profiler is off */
+        context.getTickProfiler().install(automail);
+
+        Clock clock = context.getClock();
+        long thread = Thread.currentThread().getId();
+        long start = 0;
+        while (delivery.getDeliveredCount() != mailGenerator.MAIL_TO_CREATE) {
+            if (clock.Time() == SETTLE_TICKS) {
+                start = THREADS.getThreadAllocatedBytes(thread);
+            }
+            Simulation.runTick(automail, mailGenerator);
+            clock.Tick();
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - start;
+        if (clock.Time() <= SETTLE_TICKS) {
+            return new long[] {0, 0};
+        }
+        return new long[] {allocated, clock.Time() - SETTLE_TICKS};
+    }
+}
@@ -0,0 +1,178 @@
+package simulation;
+
+import java.util.concurrent.locks.LockSupport;
+
+import automail.Charge;
+import automail.MailItem;
+import automail.Robot;
+import automail.Robot.RobotState;
+
+/**
+ * Hands simulation events to a background thread that writes them with a TextEventSink, so formatting and
+ * output happen off the simulation thread. Events pass through a fixed ring of reusable slots. The simulation
+ * thread is the only producer and only waits when the writer falls a whole ring behind. The writer drains all
+ * published events as one batch and flushes once per batch.
+ */
+public class AsyncEventSink implements SimulationEventSink {
+
+    private static final int MAIL_ARRIVED = 0;
+    private static final int STATE_CHANGED = 1;
+    private static final int DELIVERY_STARTED = 2;
+    private static final int DELIVERED = 3;
+
+    /** How long the writer sleeps when there is nothing to write */
+    private static final long IDLE_PARK_NANOS = 100_000;
+
+    private final TextEventSink writer;
+    private final Slot[] ring;
+    private final int mask;
+    private final Thread writerThread;
+
+    /** Sequence number of the next slot to be published, only written by the simulation thread */
+    private volatile long published = 0;
+    /** Sequence number of the next slot to be written, only written by the writer thread */
+    private volatile long written = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param writer formats and writes the events
+     * @param capacity the number of events that can be waiting at once, rounded up to a power of two
+     */
+    public AsyncEventSink(TextEventSink writer, int capacity) {
+        this.writer = writer;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; i++) ring[i] = new Slot();
+        this.mask = size - 1;
+        this.writerThread = new Thread(this::drain, "simulation-event-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void mailArrived(int time, MailItem mailItem) {
+        Slot slot = claim(MAIL_ARRIVED, time);
+        slot.mailItem = mailItem;
+        publish();
+    }
+
+    public void stateChanged(int time, Robot robot, RobotState from, RobotState to) {
+        Slot slot = claim(STATE_CHANGED, time);
+        slot.capture(robot);
+        slot.from = from;
+        slot.to = to;
+        publish();
+    }
+
+    public void deliveryStarted(int time, Robot robot, MailItem mailItem) {
+        Slot slot = claim(DELIVERY_STARTED, time);
+        slot.capture(robot);
+        slot.mailItem = mailItem;
+        publish();
+    }
+
+    public void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge) {
+        Slot slot = claim(DELIVERED, time);
+        slot.capture(robot);
+        slot.deliveredCount = deliveredCount;
+        slot.mailItem = mailItem;
+        slot.charge = charge;
+        publish();
+    }
+
+    public void flush() {
+        while (written != published) {
+            LockSupport.unpark(writerThread);
+            Thread.yield();
+        }
+    }
+
+    public void close() {
+        flush();
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+    }
+
+    /**
+     * Waits for the next slot to be free and starts filling it in
+     */
+    private Slot claim(int type, int time) {
+        while (published - written == ring.length) {
+            LockSupport.unpark(writerThread);
+            Thread.yield();
+        }
+        Slot slot = ring[(int) published & mask];
+        slot.type = type;
+        slot.time = time;
+        return slot;
+    }
+
+    private void publish() {
+        published = published + 1;
+    }
+
+    /**
+     * Body of the writer thread
+     */
+    private void drain() {
+        while (true) {
+            long available = published;
+            if (available == written) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            for (long sequence = written; sequence < available; sequence++) {
+                ring[(int) sequence & mask].writeTo(writer);
+            }
+            writer.flush();
+            written = available;
+        }
+    }
+
+    /**
+     * A reusable event record
+     */
+    private static class Slot {
+        int type;
+        int time;
+        String robotId;
+        int tubeLength;
+        RobotState from;
+        RobotState to;
+        int deliveredCount;
+        MailItem mailItem;
+        Charge charge;
+
+        void capture(Robot robot) {
+            robotId = robot.getId();
+            tubeLength = robot.getCurrentTubeLength();
+        }
+
+        void writeTo(TextEventSink writer) {
+            switch (type) {
+                case MAIL_ARRIVED:
+                    writer.mailArrived(time, mailItem);
+                    break;
+                case STATE_CHANGED:
+                    writer.stateChanged(time, robotId, tubeLength, from, to);
+                    break;
+                case DELIVERY_STARTED:
+                    writer.deliveryStarted(time, robotId, tubeLength, mailItem);
+                    break;
+                case DELIVERED:
+                    writer.delivered(time, robotId, tubeLength, deliveredCount, mailItem, charge);
+                    break;
+            }
+            mailItem = null;
+            charge = null;
+        }
+    }
+}
@@ -3,16 +3,28 @@ package simulation;
 public class Clock {
 	
 	/** Represents the current time **/
-    private static int Time = 0;
+    private int Time = 0;
     
     /** The threshold for the latest time for mail to arrive **/
-    public static int MAIL_RECEVING_LENGTH;
+    public final int MAIL_RECEVING_LENGTH;
 
-    public static int Time() {
+    public Clock(int mailReceivingLength) {
+    	this.MAIL_RECEVING_LENGTH = mailReceivingLength;
+    }
+
+    public int Time() {
     	return Time;
     }
     
-    public static void Tick() {
+    public void Tick() {
     	Time++;
     }
+
+    /**
+     * Moves the clock forward over ticks in which nothing happens
+     * @param ticks the number of ticks to advance
+     */
+    public void Advance(int ticks) {
+    	Time += ticks;
+    }
 }
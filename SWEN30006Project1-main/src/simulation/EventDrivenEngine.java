@@ -0,0 +1,132 @@
+package simulation;
+
+import java.util.PriorityQueue;
+
+import automail.Automail;
+import automail.Robot;
+import exceptions.ExcessiveDeliveryException;
+import exceptions.ItemTooHeavyException;
+
+/**
+ * Runs the simulation by jumping the clock from one event to the next instead of ticking through idle time.
+ * An event is mail arriving, a robot reaching its destination or the mailroom, or a waiting robot that can be
+ * loaded or dispatched. Ticks holding an event are run exactly as the tick loop runs them, and the ticks in
+ * between, in which robots only move, are skipped, so the delivery log and total delay are unchanged.
+ */
+public class EventDrivenEngine {
+
+    private static final int MAIL_ARRIVAL = -1;
+
+    private final Automail automail;
+    private final MailSource mailSource;
+    private final IMailDelivery delivery;
+    private final Clock clock;
+
+    /** Pending events, earliest first. Robot events superseded by a later reschedule are skipped when reached */
+    private final PriorityQueue<Event> calendar;
+    /** The tick at which each robot next needs to operate, Integer.MAX_VALUE if it is waiting on the MailPool */
+    private final int[] wakeTimes;
+    private int scheduledArrival;
+
+    public EventDrivenEngine(SimulationContext context, Automail automail, MailSource mailSource,
+                             IMailDelivery delivery) {
+        this.clock = context.getClock();
+        this.automail = automail;
+        this.mailSource = mailSource;
+        this.delivery = delivery;
+        this.calendar = new PriorityQueue<Event>();
+        this.wakeTimes = new int[automail.getRobots().length];
+        this.scheduledArrival = -1;
+    }
+
+    /**
+     * Runs until all generated mail has been delivered
+     */
+    public void run() throws ExcessiveDeliveryException, ItemTooHeavyException, Exception {
+        while (!isComplete()) {
+            Simulation.runTick(automail, mailSource);
+            clock.Tick();
+            if (isComplete()) {
+                break;
+            }
+            schedule();
+
+            int next = nextEventTime();
+            if (next == Integer.MAX_VALUE) {
+                throw new IllegalStateException("No further events but not all mail has been delivered");
+            }
+            int skipped = next - clock.Time();
+            if (skipped > 0) {
+                if (automail.getFleet() != null) {
+                    automail.getFleet().skipTicks(skipped);
+                } else {
+                    for (Robot robot : automail.getRobots()) {
+                        robot.skipTicks(skipped);
+                    }
+                }
+                clock.Advance(skipped);
+            }
+        }
+    }
+
+    private boolean isComplete() {
+        return delivery.getDeliveredCount() == mailSource.getMailCount();
+    }
+
+    /**
+     * Puts the next mail arrival and any robot whose next active tick has changed on the calendar
+     */
+    private void schedule() {
+        int arrival = mailSource.nextArrivalTime();
+        if (arrival != Integer.MAX_VALUE && arrival != scheduledArrival) {
+            scheduledArrival = arrival;
+            calendar.add(new Event(arrival, MAIL_ARRIVAL));
+        }
+        Robot[] robots = automail.getRobots();
+        for (int i = 0; i < robots.length; i++) {
+            int ticks = robots[i].ticksUntilActive();
+            int wakeTime = ticks == Integer.MAX_VALUE ? Integer.MAX_VALUE : clock.Time() + ticks;
+            if (wakeTime != wakeTimes[i]) {
+                wakeTimes[i] = wakeTime;
+                if (wakeTime != Integer.MAX_VALUE) {
+                    calendar.add(new Event(wakeTime, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the next tick at which something other than robot movement happens
+     */
+    private int nextEventTime() {
+        if (automail.getMailPool().size() > 0 && automail.getMailPool().hasWaitingRobots()) {
+            return clock.Time();
+        }
+        while (!calendar.isEmpty()) {
+            Event event = calendar.peek();
+            boolean stale = event.time < clock.Time() ||
+                    (event.robot != MAIL_ARRIVAL && wakeTimes[event.robot] != event.time);
+            if (!stale) {
+                return event.time;
+            }
+            calendar.poll();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private static class Event implements Comparable<Event> {
+        final int time;
+        /** Index of the robot in Automail.getRobots(), or MAIL_ARRIVAL */
+        final int robot;
+
+        Event(int time, int robot) {
+            this.time = time;
+            this.robot = robot;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return Integer.compare(time, other.time);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import automail.Building;
+import com.unimelb.swen30006.wifimodem.WifiModem;
+import exceptions.ExcessiveDeliveryException;
+import util.Configuration;
+
+/**
+ * Runs a simulation up to a given tick once, then forks it into variants that each carry on from that tick, run
+ * concurrently on a fork-join pool. A variant is the run's configuration with some properties overridden, e.g.
+ * the number of robots of each type, Fee_Charging or the MailPool order, so variants are compared from the same
+ * moment without simulating the shared prefix once per variant.
+ *
+ * The prefix is handed to the variants as an in-memory Snapshot, which holds only the live state of the run:
+ * the robots, the pool and the delivered set. Each variant rebuilds its own copy from it, so variants share
+ * nothing while they run. Runs are neither journalled nor snapshotted to file, and their logs are discarded.
+ * As with ParallelSimulationRunner, runs share the wifi modem.
+ */
+public class ForkingSimulationRunner {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism the number of variants to run at once
+     */
+    public ForkingSimulationRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Runs the shared prefix
+     * @param configuration the configuration of the prefix, including its seed
+     * @param tick the last tick of the prefix
+     * @return a snapshot of the run at the end of the tick
+     */
+    public byte[] runPrefix(Configuration configuration, int tick) throws Exception {
+        SimulationContext context = new SimulationContext(ParallelSimulationRunner.detached(configuration),
+                SimulationEventSink.NONE);
+        try {
+            return new Simulation(context, ParallelSimulationRunner.seedMap(configuration)).runUntil(tick);
+        } catch (ExcessiveDeliveryException e) {
+            throw new IllegalStateException("Simulation unable to complete.", e);
+        }
+    }
+
+    /**
+     * Carries on from the prefix once per variant
+     * @param prefix the snapshot returned by runPrefix
+     * @param variants the configuration of each variant, with the prefix's seed and mail
+     * @return the result of each variant, in the order of the configurations
+     */
+    public List<SimulationResult> runVariants(byte[] prefix, List<Configuration> variants) throws Exception {
+        List<Callable<SimulationResult>> runs = new ArrayList<Callable<SimulationResult>>();
+        for (Configuration variant : variants) {
+            runs.add(() -> runVariant(prefix, variant));
+        }
+        List<SimulationResult> results = new ArrayList<SimulationResult>();
+        for (Future<SimulationResult> result : pool.invokeAll(runs)) {
+            results.add(result.get());
+        }
+        return results;
+    }
+
+    private static SimulationResult runVariant(byte[] prefix, Configuration configuration) throws Exception {
+        SimulationContext context = new SimulationContext(ParallelSimulationRunner.detached(configuration),
+                SimulationEventSink.NONE);
+        try {
+            return new Simulation(context, ParallelSimulationRunner.seedMap(configuration)).runFrom(prefix);
+        } catch (ExcessiveDeliveryException e) {
+            throw new IllegalStateException("Simulation unable to complete.", e);
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * The arguments are the seed, the last tick of the shared prefix and then one argument per variant listing
+     * its property overrides, e.g. "42 60 base Dispatch_Policy=cost Bulk_Robots=5,Fast_Robots=1". Properties not
+     * overridden come from automail.properties.
+     */
+    public static void main(String[] args) throws Exception {
+        Configuration base = new Configuration(Configuration.getInstance());
+        base.setProperty(Configuration.SEED_KEY, args[0]);
+        int tick = Integer.parseInt(args[1]);
+        List<Configuration> variants = new ArrayList<Configuration>();
+        for (int i = 2; i < args.length; i++) {
+            Configuration variant = new Configuration(base);
+            if (!args[i].equals("base")) {
+                for (String override : args[i].split(",")) {
+                    String[] property = override.split("=", 2);
+                    variant.setProperty(property[0].trim(), property[1].trim());
+                }
+            }
+            variants.add(variant);
+        }
+
+        /** Install the modem & turn on the modem **/
+        WifiModem wifiModem = WifiModem.getInstance(Building.fromConfiguration(base).getMailroomLocationFloor());
+        System.out.println(wifiModem.Turnon());
+
+        ForkingSimulationRunner runner = new ForkingSimulationRunner(Runtime.getRuntime().availableProcessors());
+        try {
+            byte[] prefix = runner.runPrefix(base, tick);
+            System.out.printf("Forked at T: %d (%d byte snapshot)%n", tick, prefix.length);
+            List<SimulationResult> results = runner.runVariants(prefix, variants);
+            for (int i = 0; i < results.size(); i++) {
+                SimulationResult result = results.get(i);
+                System.out.printf("%-30s Final Delivery time: %6d | Delay: %.2f%n", args[i + 2],
+                        result.getFinalTime(), result.getTotalDelay());
+            }
+        } finally {
+            runner.shutdown();
+        }
+        System.out.println(wifiModem.Turnoff());
+    }
+}
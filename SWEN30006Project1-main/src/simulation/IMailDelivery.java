@@ -1,22 +1,29 @@
 package simulation;
 
-import automail.MailItem;
+import automail.Charge;
 import automail.Robot;
 
-import java.util.Set;
-
 /**
  * a MailDelivery is used by the Robot to deliver mail once it has arrived at the correct location
  */
 public interface IMailDelivery {
 
 	/**
-     * Delivers an item at its floor
-     * @param mailItem the mail item being delivered.
+     * Delivers an item at its floor, after which its handle is released
+     * @param mailItem the handle of the mail item being delivered.
+     * @param charge the charge for the delivery, null if fees are not charged
      */
-	void deliver(Robot robot, MailItem mailItem, String additionalLog);
+	void deliver(Robot robot, int mailItem, Charge charge);
 
 	double getTotal_delay();
 
-	Set<MailItem> getDeliveredItems();
+	/**
+	 * @return the number of items delivered so far
+	 */
+	int getDeliveredCount();
+
+	/**
+	 * @return true if the item with the given number has been delivered
+	 */
+	boolean isDelivered(int number);
 }
\ No newline at end of file
@@ -0,0 +1,661 @@
+package simulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import automail.Automail;
+import automail.BatchingDispatchPolicy;
+import automail.Charge;
+import automail.MailItem;
+import automail.DispatchPolicy;
+import automail.MailPool;
+import automail.MailStore;
+import automail.Robot;
+import automail.Robot.RobotState;
+import util.ReportDelivery;
+
+/**
+ * An append-only journal of a simulation run, from which a run that died part way can be resumed.
+ *
+ * The journal sits in front of the run's event sink and records mail arrivals, deliveries and, at the end of
+ * each tick, the full state of every robot that was loaded, changed state or delivered during it. A commit
+ * record then closes the tick with the clock time, the operating time of each robot type and a CRC32 of the
+ * tick's records. When robots are held for a fuller tube, each robot being held or released is recorded as it
+ * happens, and the batching counters whenever a tick changes them.
+ *
+ * Records are collected in one of two buffers. When it fills, or once every groupTicks ticks, the buffer is handed
+ * to the journal's writer thread, which writes it through a FileChannel and, at the end of a group, forces it to
+ * disk, while the simulation carries on into the other buffer. The simulation thread only waits when it needs the
+ * other buffer back before the writer is done with it, and in flush() and close(), which wait for the disk. A
+ * crash loses at most the ticks of the last two groups.
+ *
+ * recover() reads the journal back a chunk at a time, up to the last intact commit record, and rebuilds the
+ * MailPool, the robots, the held robots and the delivered mail from the ticks it read. The run then carries on from the next tick, appending to the same journal.
+ * A robot's floor follows from the journey it set off on, so its floor at the last commit is worked out from its
+ * last record rather than being journalled every tick. Fees looked up after recovery come from the modem's
+ * state at that point, so they can differ from those of an uninterrupted run.
+ */
+public class Journal implements SimulationEventSink {
+
+    private static final byte ARRIVAL = 'A';
+    private static final byte DELIVERY = 'D';
+    private static final byte ROBOT = 'R';
+    private static final byte COMMIT = 'C';
+    private static final byte HOLD = 'H';
+    private static final byte BATCHING = 'B';
+
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final SimulationEventSink delegate;
+    private final FileChannel channel;
+    private final Robot[] robots;
+    private final SimulationContext context;
+    /** The policy holding robots for a fuller tube, null if robots are never held */
+    private final BatchingDispatchPolicy batching;
+    /** The batching counters as last recorded: trips, items, held ticks and timeouts */
+    private final long[] batchingCounters;
+    private final int groupTicks;
+    /** The robot types in the run, whose operating times are recorded with each commit */
+    private final String[] types;
+    private final byte[][] typeNames;
+
+    /** Writes out and forces the buffers handed to it, one at a time */
+    private final ExecutorService writer;
+    /** The buffer records are collected in, and the one last handed to the writer */
+    private ByteBuffer buffer;
+    private ByteBuffer handedOff;
+    /** The writer's work on handedOff, null if nothing was handed off yet */
+    private Future<?> writing;
+    /** CRC32 of the records since the last commit record */
+    private final CRC32 crc;
+    /** Robots to record at the end of the tick, in the order they first changed */
+    private final int[] dirty;
+    private final boolean[] isDirty;
+    private int dirtyCount;
+    private int uncommittedTicks;
+
+    private Journal(SimulationEventSink delegate, FileChannel channel, Automail automail, SimulationContext context,
+                    int groupTicks) {
+        this.delegate = delegate;
+        this.channel = channel;
+        this.robots = automail.getRobots();
+        this.context = context;
+        this.batching = batching(automail);
+        this.batchingCounters = new long[4];
+        if (batching != null) {
+            changedBatchingCounters();
+        }
+        this.groupTicks = Math.max(1, groupTicks);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        this.handedOff = ByteBuffer.allocate(BUFFER_BYTES);
+        this.crc = new CRC32();
+        this.dirty = new int[robots.length];
+        this.isDirty = new boolean[robots.length];
+        this.types = Arrays.stream(robots).map(Robot::getRobotType).distinct().toArray(String[]::new);
+        this.typeNames = new byte[types.length][];
+        for (int i = 0; i < types.length; i++) typeNames[i] = types[i].getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens a journal for a new run, discarding anything already in the file
+     * @param path the journal file
+     * @param context the simulation run; its event sink is wrapped by the journal
+     * @param automail the robots to journal
+     * @param groupTicks the number of ticks committed by each sync to disk
+     * @return the journal, installed as the run's event sink
+     */
+    public static Journal create(Path path, SimulationContext context, Automail automail, int groupTicks)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return install(channel, context, automail, groupTicks);
+    }
+
+    private static Journal install(FileChannel channel, SimulationContext context, Automail automail,
+                                   int groupTicks) {
+        Journal journal = new Journal(context.getEventSink(), channel, automail, context, groupTicks);
+        context.setEventSink(journal);
+        return journal;
+    }
+
+    /**
+     * Rebuilds the run recorded in a journal and opens the journal to carry on from where it ends. Anything
+     * after the last intact commit record is discarded. Must be called before the run's first tick.
+     * @param path the journal file
+     * @param context the simulation run to rebuild; its event sink is wrapped by the journal
+     * @param automail the robots and MailPool to rebuild
+     * @param delivery the record of delivered mail to rebuild
+     * @param mailSource the source of the run's mail, which skips the mail already recovered
+     * @param groupTicks the number of ticks committed by each sync to disk
+     * @return the journal, installed as the run's event sink
+     */
+    public static Journal recover(Path path, SimulationContext context, Automail automail, ReportDelivery delivery,
+                                  MailSource mailSource, int groupTicks) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        Recovery recovery = new Recovery(automail.getRobots().length);
+        long end = recovery.read(channel);
+        channel.truncate(end);
+        channel.position(end);
+        if (recovery.time >= 0) {
+            recovery.apply(context, automail, delivery, mailSource);
+        }
+        return install(channel, context, automail, groupTicks);
+    }
+
+    /**
+     * @return the run's batching policy, or null if robots are never held
+     */
+    private static BatchingDispatchPolicy batching(Automail automail) {
+        DispatchPolicy policy = automail.getMailPool().getDispatchPolicy();
+        return policy instanceof BatchingDispatchPolicy ? (BatchingDispatchPolicy) policy : null;
+    }
+
+    public void mailArrived(int time, MailItem mailItem) {
+        delegate.mailArrived(time, mailItem);
+        int start = begin(ARRIVAL, 20);
+        buffer.putInt(mailItem.getNumber());
+        buffer.putInt(mailItem.getDestFloor());
+        buffer.putInt(mailItem.getArrivalTime());
+        buffer.putInt(mailItem.getWeight());
+        buffer.putInt(mailItem.getPriorityLevel());
+        end(start);
+    }
+
+    public void stateChanged(int time, Robot robot, RobotState from, RobotState to) {
+        delegate.stateChanged(time, robot, from, to);
+        markDirty(robot);
+    }
+
+    public void deliveryStarted(int time, Robot robot, MailItem mailItem) {
+        delegate.deliveryStarted(time, robot, mailItem);
+        markDirty(robot);
+    }
+
+    public void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge) {
+        delegate.delivered(time, robot, deliveredCount, mailItem, charge);
+        int start = begin(DELIVERY, 8);
+        buffer.putInt(mailItem.getNumber());
+        buffer.putInt(time);
+        end(start);
+        markDirty(robot);
+    }
+
+    public void holdChanged(int time, Robot robot, int heldSince) {
+        delegate.holdChanged(time, robot, heldSince);
+        int start = begin(HOLD, 8);
+        buffer.putInt(robot.getNumber());
+        buffer.putInt(heldSince);
+        end(start);
+    }
+
+    /**
+     * Records the robots and batching counters that changed during the tick and commits it
+     */
+    public void tickCompleted(int time) {
+        delegate.tickCompleted(time);
+        for (int i = 0; i < dirtyCount; i++) {
+            writeRobot(robots[dirty[i]]);
+            isDirty[dirty[i]] = false;
+        }
+        dirtyCount = 0;
+        if (batching != null && changedBatchingCounters()) {
+            int start = begin(BATCHING, 32);
+            for (long counter : batchingCounters) buffer.putLong(counter);
+            end(start);
+        }
+
+        int size = 12;
+        for (byte[] name : typeNames) size += 6 + name.length;
+        int start = begin(COMMIT, size);
+        buffer.putInt(time);
+        buffer.putInt(types.length);
+        for (int i = 0; i < types.length; i++) {
+            buffer.putShort((short) typeNames[i].length);
+            buffer.put(typeNames[i]);
+            buffer.putInt(context.getRobotTypeStats(types[i]).getTotalTimeOperated());
+        }
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+        crc.reset();
+
+        if (++uncommittedTicks >= groupTicks) {
+            handOff(true);
+            uncommittedTicks = 0;
+        }
+    }
+
+    /**
+     * Waits for every tick recorded so far to reach the disk
+     */
+    public void flush() {
+        sync();
+        delegate.flush();
+    }
+
+    public void close() {
+        sync();
+        writer.shutdown();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to close journal", e);
+        }
+        delegate.close();
+    }
+
+    /**
+     * Takes the batching counters into batchingCounters
+     * @return true if any changed since they were last taken
+     */
+    private boolean changedBatchingCounters() {
+        boolean changed = batchingCounters[0] != batching.getTrips() || batchingCounters[1] != batching.getItems()
+                || batchingCounters[2] != batching.getHeldTicks() || batchingCounters[3] != batching.getTimeouts();
+        batchingCounters[0] = batching.getTrips();
+        batchingCounters[1] = batching.getItems();
+        batchingCounters[2] = batching.getHeldTicks();
+        batchingCounters[3] = batching.getTimeouts();
+        return changed;
+    }
+
+    private void markDirty(Robot robot) {
+        int number = robot.getNumber();
+        if (!isDirty[number]) {
+            isDirty[number] = true;
+            dirty[dirtyCount++] = number;
+        }
+    }
+
+    private void writeRobot(Robot robot) {
+        MailStore mailStore = context.getMailStore();
+        int tubeLength = robot.getCurrentTubeLength();
+        int start = begin(ROBOT, 32 + 4 * tubeLength);
+        buffer.putInt(robot.getNumber());
+        buffer.putInt(robot.getCurrentState().ordinal());
+        buffer.putInt(robot.getCurrentFloor());
+        buffer.putInt(robot.getDestinationFloor());
+        buffer.putInt(robot.getDeliveryCounter());
+        buffer.putInt(robot.getReceivedDispatch() ? 1 : 0);
+        int deliveryItem = robot.getDeliveryItem();
+        buffer.putInt(deliveryItem == MailStore.NONE ? MailStore.NONE : mailStore.getNumber(deliveryItem));
+        buffer.putInt(tubeLength);
+        for (int i = 0; i < tubeLength; i++) {
+            buffer.putInt(mailStore.getNumber(robot.getTube()[i]));
+        }
+        end(start);
+    }
+
+    /**
+     * Starts a record, first writing out the buffer if the record would not fit
+     * @return the buffer position the record starts at
+     */
+    private int begin(byte type, int size) {
+        if (buffer.remaining() < size + 1) {
+            handOff(false);
+        }
+        int start = buffer.position();
+        buffer.put(type);
+        return start;
+    }
+
+    private void end(int start) {
+        crc.update(buffer.array(), start, buffer.position() - start);
+    }
+
+    /**
+     * Hands the buffer to the writer thread and carries on in the other one, once the writer is done with it
+     * @param force whether the writer forces the journal to disk after writing the buffer
+     */
+    private void handOff(boolean force) {
+        awaitWriter();
+        ByteBuffer full = buffer;
+        buffer = handedOff;
+        buffer.clear();
+        handedOff = full;
+        full.flip();
+        writing = writer.submit(() -> {
+            while (full.hasRemaining()) {
+                channel.write(full);
+            }
+            if (force) {
+                channel.force(false);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the writer to finish with the buffer last handed to it
+     */
+    private void awaitWriter() {
+        if (writing == null) {
+            return;
+        }
+        try {
+            writing.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException("Unable to write journal", (IOException) cause);
+            }
+            throw new IllegalStateException("Unable to write journal", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing journal", e);
+        }
+        writing = null;
+    }
+
+    /**
+     * Hands the buffer to the writer and waits for it to reach the disk, committing every tick recorded so far
+     */
+    private void sync() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        handOff(true);
+        awaitWriter();
+        uncommittedTicks = 0;
+    }
+
+    /**
+     * The state of a run read back from a journal
+     */
+    private static class Recovery {
+        /** Arrived mail by number, in arrival order */
+        final LinkedHashMap<Integer, MailItem> arrived = new LinkedHashMap<Integer, MailItem>();
+        /** Delivered mail numbers and their delivery times, in delivery order */
+        final List<int[]> deliveries = new ArrayList<int[]>();
+        /** The last record of each robot */
+        final int[][] robotRecords;
+        final int[] robotRecordTimes;
+        /** The order the last records were written in, for the order robots registered as waiting */
+        final long[] robotRecordOrder;
+        final Map<String, Integer> operated = new HashMap<String, Integer>();
+        /** The tick each robot that was last recorded as held or released has been held since, by number */
+        final Map<Integer, Integer> heldSince = new HashMap<Integer, Integer>();
+        /** The batching counters as last recorded, null if they never were */
+        long[] batchingCounters;
+        int time = -1;
+
+        Recovery(int robots) {
+            robotRecords = new int[robots][];
+            robotRecordTimes = new int[robots];
+            robotRecordOrder = new long[robots];
+        }
+
+        /**
+         * Reads the journal up to its last intact commit record
+         * @return the position just after that commit record
+         */
+        long read(FileChannel channel) throws IOException {
+            Reader journal = new Reader(channel);
+            List<Object[]> tick = new ArrayList<Object[]>();
+            long committed = 0;
+            long order = 0;
+            try {
+                while (journal.hasRemaining()) {
+                    byte type = journal.get();
+                    switch (type) {
+                        case ARRIVAL:
+                            tick.add(new Object[] {ARRIVAL, new MailItem(journal.getInt(), journal.getInt(),
+                                    journal.getInt(), journal.getInt(), journal.getInt())});
+                            break;
+                        case DELIVERY:
+                            tick.add(new Object[] {DELIVERY, new int[] {journal.getInt(), journal.getInt()}});
+                            break;
+                        case ROBOT:
+                            int[] record = new int[8];
+                            for (int i = 0; i < record.length; i++) record[i] = journal.getInt();
+                            int[] robot = new int[record.length + record[7]];
+                            System.arraycopy(record, 0, robot, 0, record.length);
+                            for (int i = record.length; i < robot.length; i++) robot[i] = journal.getInt();
+                            tick.add(new Object[] {ROBOT, robot});
+                            break;
+                        case HOLD:
+                            tick.add(new Object[] {HOLD, new int[] {journal.getInt(), journal.getInt()}});
+                            break;
+                        case BATCHING:
+                            tick.add(new Object[] {BATCHING, new long[] {journal.getLong(), journal.getLong(),
+                                    journal.getLong(), journal.getLong()}});
+                            break;
+                        case COMMIT:
+                            int commitTime = journal.getInt();
+                            Map<String, Integer> tickOperated = new HashMap<String, Integer>();
+                            int types = journal.getInt();
+                            for (int i = 0; i < types; i++) {
+                                byte[] name = new byte[journal.getShort()];
+                                journal.get(name);
+                                tickOperated.put(new String(name, StandardCharsets.UTF_8), journal.getInt());
+                            }
+                            if (!journal.checkCrc()) {
+                                return committed;
+                            }
+                            for (Object[] entry : tick) {
+                                apply(entry, commitTime, order++);
+                            }
+                            tick.clear();
+                            operated.putAll(tickOperated);
+                            time = commitTime;
+                            committed = journal.position();
+                            continue;
+                        default:
+                            return committed;
+                    }
+                }
+            } catch (EOFException e) {
+                // A record cut short by the crash; the tick it belongs to was never committed
+            }
+            return committed;
+        }
+
+        private void apply(Object[] entry, int tickTime, long order) {
+            if ((Byte) entry[0] == ARRIVAL) {
+                MailItem mailItem = (MailItem) entry[1];
+                arrived.put(mailItem.getNumber(), mailItem);
+            } else if ((Byte) entry[0] == DELIVERY) {
+                deliveries.add((int[]) entry[1]);
+            } else if ((Byte) entry[0] == HOLD) {
+                int[] hold = (int[]) entry[1];
+                heldSince.put(hold[0], hold[1]);
+            } else if ((Byte) entry[0] == BATCHING) {
+                batchingCounters = (long[]) entry[1];
+            } else {
+                int[] robot = (int[]) entry[1];
+                if (robot[0] < robotRecords.length) {
+                    robotRecords[robot[0]] = robot;
+                    robotRecordTimes[robot[0]] = tickTime;
+                    robotRecordOrder[robot[0]] = order;
+                }
+            }
+        }
+
+        /**
+         * Puts the run into the state it was in at the end of the last committed tick
+         */
+        void apply(SimulationContext context, Automail automail, ReportDelivery delivery, MailSource mailSource) {
+            mailSource.discardArrivalsThrough(time);
+
+            MailStore mailStore = context.getMailStore();
+            for (int[] delivered : deliveries) {
+                delivery.restoreDelivered(mailStore.put(arrived.remove(delivered[0])), delivered[1]);
+            }
+            /** The journal refers to mail by number; the handle each undelivered item is stored under */
+            Map<Integer, Integer> handles = new HashMap<Integer, Integer>();
+            for (MailItem mailItem : arrived.values()) {
+                handles.put(mailItem.getNumber(), mailStore.put(mailItem));
+            }
+
+            Robot[] robots = automail.getRobots();
+            Integer[] waiting = new Integer[robots.length];
+            int waitingCount = 0;
+            for (int i = 0; i < robots.length; i++) {
+                int[] record = robotRecords[i];
+                if (record == null) {
+                    continue;
+                }
+                int hand = MailStore.NONE;
+                if (record[6] >= 0) {
+                    arrived.remove(record[6]);
+                    hand = handles.get(record[6]);
+                }
+                int[] tube = new int[record[7]];
+                for (int j = 0; j < tube.length; j++) {
+                    arrived.remove(record[8 + j]);
+                    tube[j] = handles.get(record[8 + j]);
+                }
+                RobotState state = RobotState.values()[record[1]];
+                robots[i].restore(state, record[2], record[3], record[4], record[5] != 0, hand, tube,
+                        robotRecordTimes[i]);
+                if (state == RobotState.WAITING && record[5] == 0) {
+                    waiting[waitingCount++] = i;
+                }
+            }
+            Arrays.sort(waiting, 0, waitingCount,
+                    (a, b) -> Long.compare(robotRecordOrder[a], robotRecordOrder[b]));
+            MailPool mailPool = automail.getMailPool();
+            for (int i = 0; i < waitingCount; i++) {
+                mailPool.registerWaiting(robots[waiting[i]]);
+            }
+            for (int number : arrived.keySet()) {
+                mailPool.addToPool(handles.get(number));
+            }
+
+            BatchingDispatchPolicy batching = batching(automail);
+            if (batching != null) {
+                for (Map.Entry<Integer, Integer> entry : heldSince.entrySet()) {
+                    batching.restoreHeldSince(entry.getKey(), entry.getValue());
+                }
+                if (batchingCounters != null) {
+                    batching.restoreCounters(batchingCounters[0], batchingCounters[1], batchingCounters[2],
+                            batchingCounters[3]);
+                }
+            }
+
+            for (Map.Entry<String, Integer> entry : operated.entrySet()) {
+                context.getRobotTypeStats(entry.getKey()).restoreTimeOperated(entry.getValue());
+            }
+            context.getClock().Advance(time + 1 - context.getClock().Time());
+        }
+    }
+
+    /**
+     * Reads a journal through its channel BUFFER_BYTES at a time, keeping a CRC32 of the bytes read since the
+     * last commit record
+     */
+    private static class Reader {
+        private final FileChannel channel;
+        private final ByteBuffer chunk;
+        private final CRC32 crc;
+        /** The position in the file just after the bytes read into the chunk */
+        private long filled;
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+            this.chunk = ByteBuffer.allocate(BUFFER_BYTES);
+            this.chunk.limit(0);
+            this.crc = new CRC32();
+        }
+
+        /**
+         * @return the position in the file of the next byte to be read
+         */
+        long position() {
+            return filled - chunk.remaining();
+        }
+
+        boolean hasRemaining() throws IOException {
+            return chunk.hasRemaining() || fill(1);
+        }
+
+        byte get() throws IOException {
+            require(1);
+            byte value = chunk.get();
+            crc.update(value);
+            return value;
+        }
+
+        short getShort() throws IOException {
+            require(2);
+            short value = chunk.getShort();
+            crc.update(chunk.array(), chunk.position() - 2, 2);
+            return value;
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            int value = chunk.getInt();
+            crc.update(chunk.array(), chunk.position() - 4, 4);
+            return value;
+        }
+
+        long getLong() throws IOException {
+            require(8);
+            long value = chunk.getLong();
+            crc.update(chunk.array(), chunk.position() - 8, 8);
+            return value;
+        }
+
+        void get(byte[] bytes) throws IOException {
+            require(bytes.length);
+            chunk.get(bytes);
+            crc.update(bytes);
+        }
+
+        /**
+         * Reads the CRC32 that ends a commit record and starts the next tick's
+         * @return true if it matches the bytes read since the last commit record
+         */
+        boolean checkCrc() throws IOException {
+            int expected = (int) crc.getValue();
+            require(4);
+            crc.reset();
+            return chunk.getInt() == expected;
+        }
+
+        private void require(int count) throws IOException {
+            if (chunk.remaining() < count && !fill(count)) {
+                throw new EOFException("Journal ends part way through a record");
+            }
+        }
+
+        /**
+         * Reads chunks until at least count bytes are unread
+         * @return false if the file ends first
+         */
+        private boolean fill(int count) throws IOException {
+            chunk.compact();
+            int read = 0;
+            while (chunk.position() < count && read >= 0) {
+                read = channel.read(chunk, filled);
+                if (read > 0) {
+                    filled += read;
+                }
+            }
+            chunk.flip();
+            return chunk.remaining() >= count;
+        }
+    }
+}
@@ -1,71 +1,132 @@
 package simulation;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
-import automail.Building;
-import automail.MailItem;
 import automail.MailPool;
+import automail.MailStore;
+import util.IntDeque;
 
 /**
  * This class generates the mail
+ *
+ * Mail is either generated all at once, or streamed. The seeded sequence is drawn in creation order rather than
+ * arrival order, so streaming draws it once, a chunk at a time, and spills each chunk sorted by arrival time to a
+ * temporary file (see MailRuns). As the clock advances the chunks are merged back in arrival order, and only the
+ * mail arriving in the current tick is held in memory. Streaming produces exactly the same mail as generating it
+ * all at once.
  */
-public class MailGenerator {
+public class MailGenerator implements MailSource {
 
     public final int MAIL_TO_CREATE;
     public final int MAIL_MAX_WEIGHT;
     
     private int mailCreated;
 
-    private final Random random;
+    private Random random;
     /** This seed is used to make the behaviour deterministic */
+    private final long replaySeed;
+    private final int mailToCreate;
+    /** Identifier of the first mail item, the rest follow in creation order */
+    private final int firstMailId;
     
-    private boolean complete;
     private MailPool mailPool;
+    private final SimulationContext context;
 
-    private Map<Integer,ArrayList<MailItem>> allMail;
+    /**
+     * Generated mail that has not arrived yet, indexed by arrival time, null where none arrives. Indexing by time
+     * rather than keying a map by it keeps the arrivals of a tick from boxing the clock time.
+     */
+    private IntDeque[] allMail;
+    /** No mail arrives before this time */
+    private int firstArrival;
+    /** Streamed mail not yet read into allMail, null when not streaming or all of it has been read */
+    private MailRuns runs;
+    /** The arrival time of the last mail read back from runs */
+    private int lastRead;
+    /** The fields of one mail item, as in MailRuns */
+    private final int[] record;
 
     /**
      * Constructor for mail generation
+     * @param context the simulation run the mail is generated for
      * @param mailToCreate roughly how many mail items to create
      * @param mailMaxWeight limits the maximum weight of the mail
      * @param mailPool where mail items go on arrival
      * @param seed random seed for generating mail
      */
-    public MailGenerator(int mailToCreate, int mailMaxWeight, MailPool mailPool, HashMap<Boolean,Integer> seed){
+    public MailGenerator(SimulationContext context, int mailToCreate, int mailMaxWeight, MailPool mailPool, HashMap<Boolean,Integer> seed){
+        this.context = context;
         if(seed.containsKey(true)){
-        	this.random = new Random((long) seed.get(true));
+        	this.replaySeed = seed.get(true);
         }
         else{
-        	this.random = new Random();	
+        	this.replaySeed = new Random().nextLong();
         }
+        this.mailToCreate = mailToCreate;
         // Vary arriving mail by +/-20%
-        MAIL_TO_CREATE = mailToCreate*4/5 + random.nextInt(mailToCreate*2/5);
+        MAIL_TO_CREATE = startSequence();
+        firstMailId = context.reserveMailIds(MAIL_TO_CREATE);
         MAIL_MAX_WEIGHT = mailMaxWeight;
         // System.out.println("Num Mail Items: "+MAIL_TO_CREATE);
         mailCreated = 0;
-        complete = false;
-        allMail = new HashMap<Integer,ArrayList<MailItem>>();
+        allMail = new IntDeque[context.getClock().MAIL_RECEVING_LENGTH + 1];
+        firstArrival = 0;
+        record = new int[MailRuns.FIELDS];
         this.mailPool = mailPool;
     }
 
     /**
-     * @return a new mail item that needs to be delivered
+     * Restarts the seeded sequence from the beginning
+     * @return the number of mail items to create, the first value of the sequence
+     */
+    private int startSequence(){
+        random = new Random(replaySeed);
+        return mailToCreate*4/5 + random.nextInt(mailToCreate*2/5);
+    }
+
+    /**
+     * Draws the next mail item of the sequence
+     * @param records receives the item's fields, as in MailRuns
+     * @param offset where in records the fields go
      */
-    private MailItem generateMail(){
-    	MailItem newMailItem;
-        int destinationFloor = generateDestinationFloor();
-        int priorityLevel = generatePriorityLevel();
-        int arrivalTime = generateArrivalTime();
-        int weight = generateWeight();
-        newMailItem = new MailItem(destinationFloor,arrivalTime,weight);      	
-        return newMailItem;
+    private void generateMail(int[] records, int offset){
+        records[offset + MailRuns.SEQUENCE] = mailCreated++;
+        records[offset + MailRuns.DESTINATION] = generateDestinationFloor();
+        records[offset + MailRuns.PRIORITY] = generatePriorityLevel();
+        records[offset + MailRuns.ARRIVAL] = generateArrivalTime();
+        records[offset + MailRuns.WEIGHT] = generateWeight();
+    }
+
+    /**
+     * Stores a generated mail item and schedules its arrival
+     * @param records holds the item's fields, as in MailRuns
+     * @param offset where in records the fields are
+     */
+    private void scheduleMail(int[] records, int offset){
+        int timeToDeliver = records[offset + MailRuns.ARRIVAL];
+        int newMail = context.getMailStore().put(firstMailId + records[offset + MailRuns.SEQUENCE],
+                records[offset + MailRuns.DESTINATION], timeToDeliver, records[offset + MailRuns.WEIGHT],
+                records[offset + MailRuns.PRIORITY]);
+        /** Check if mail already arrives at this time **/
+        if(allMail[timeToDeliver] != null){
+            /** Add to existing array */
+            allMail[timeToDeliver].addLast(newMail);
+        }
+        else{
+            /** If not then start the array of MailItems to add during that time step. */
+            IntDeque newMailList = new IntDeque();
+            newMailList.addLast(newMail);
+            allMail[timeToDeliver] = newMailList;
+        }
     }
 
     /**
      * @return a destination floor between the ranges of GROUND_FLOOR to FLOOR
      */
     private int generateDestinationFloor(){
-        return Building.getInstance().getLowestFloor() + random.nextInt(Building.getInstance().getnFloors());
+        return context.getBuilding().getLowestFloor() + random.nextInt(context.getBuilding().getnFloors());
     }
 
     /**
@@ -84,7 +145,7 @@ public class MailGenerator {
      * @return a random arrival time before the last delivery time
      */
     private int generateArrivalTime(){
-        return 1 + random.nextInt(Clock.MAIL_RECEVING_LENGTH);
+        return 1 + random.nextInt(context.getClock().MAIL_RECEVING_LENGTH);
     }
 
     /**
@@ -99,42 +160,108 @@ public class MailGenerator {
      * All generated mails will be saved in allMail
      */
     public void generateAllMail(){
-        while(!complete){
-            MailItem newMail =  generateMail();
-            int timeToDeliver = newMail.getArrivalTime();
-            /** Check if key exists for this time **/
-            if(allMail.containsKey(timeToDeliver)){
-                /** Add to existing array */
-                allMail.get(timeToDeliver).add(newMail);
-            }
-            else{
-                /** If the key doesn't exist then set a new key along with the array of MailItems to add during
-                 * that time step.
-                 */
-                ArrayList<MailItem> newMailList = new ArrayList<MailItem>();
-                newMailList.add(newMail);
-                allMail.put(timeToDeliver,newMailList);
-            }
-            /** Mark the mail as created */
-            mailCreated++;
+        startSequence();
+        mailCreated = 0;
+        while(mailCreated < MAIL_TO_CREATE){
+            generateMail(record, 0);
+            scheduleMail(record, 0);
+        }
+    }
 
-            /** Once we have satisfied the amount of mail to create, we're done!*/
-            if(mailCreated == MAIL_TO_CREATE){
-                complete = true;
+    /**
+     * Generates mail lazily, holding at most chunkSize items at a time while drawing the sequence and only the mail
+     * arriving in the current tick after that
+     * @param chunkSize the number of mail items sorted by arrival time at a time
+     */
+    public void streamMail(int chunkSize){
+        startSequence();
+        mailCreated = 0;
+        int[] chunk = new int[chunkSize * MailRuns.FIELDS];
+        try {
+            runs = new MailRuns();
+            lastRead = -1;
+            while(mailCreated < MAIL_TO_CREATE){
+                int count = Math.min(chunkSize, MAIL_TO_CREATE - mailCreated);
+                for (int i = 0; i < count; i++) {
+                    generateMail(chunk, i * MailRuns.FIELDS);
+                }
+                runs.write(chunk, count);
             }
+            runs.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to spill streamed mail", e);
         }
+    }
 
+    /**
+     * Makes sure the mail arriving at the given time, and the next arrival after it, have been read back
+     */
+    private void readArrivals(int time){
+        if (runs == null) {
+            return;
+        }
+        /** Mail is read in arrival order, so mail read earlier arrives no later than lastRead */
+        int until = lastRead >= time ? time : Math.max(time, runs.peekArrival());
+        while (!runs.isEmpty() && runs.peekArrival() <= until) {
+            runs.next(record);
+            lastRead = record[MailRuns.ARRIVAL];
+            scheduleMail(record, 0);
+        }
+        if (runs.isEmpty()) {
+            runs.close();
+            runs = null;
+        }
     }
-    
+
+    public int getMailCount(){
+        return MAIL_TO_CREATE;
+    }
+
+    /**
+     * @return the earliest time, no earlier than the current clock time, at which mail arrives,
+     * or Integer.MAX_VALUE if no more mail will arrive
+     */
+    public int nextArrivalTime(){
+        readArrivals(context.getClock().Time());
+        return nextArrival(context.getClock().Time());
+    }
+
+    /**
+     * @return the earliest time, no earlier than the given time, at which generated mail arrives,
+     * or Integer.MAX_VALUE if none does
+     */
+    private int nextArrival(int time){
+        for (int t = Math.max(time, firstArrival); t < allMail.length; t++) {
+            if (allMail[t] != null) return t;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    public void discardArrivalsThrough(int time){
+        readArrivals(time);
+        MailStore mailStore = context.getMailStore();
+        for (int t = firstArrival; t <= time && t < allMail.length; t++) {
+            if (allMail[t] == null) continue;
+            for (int i = 0; i < allMail[t].size(); i++) mailStore.release(allMail[t].get(i));
+            allMail[t] = null;
+        }
+        firstArrival = Math.max(firstArrival, time + 1);
+    }
+
     /**
      * Given the clock time, put the generated mails into the mailPool.
      * So that the robot will can pick up the mails from the pool.
      */
     public void addToMailPool(){
     	// Check if there are any mail to create
-        if(this.allMail.containsKey(Clock.Time())){
-            for(MailItem mailItem : allMail.get(Clock.Time())){
-                System.out.printf("T: %3d > new addToPool [%s]%n", Clock.Time(), mailItem.toString());
+        int time = context.getClock().Time();
+        readArrivals(time);
+        if(time < allMail.length && allMail[time] != null){
+            IntDeque arrivals = allMail[time];
+            allMail[time] = null;
+            for(int i = 0; i < arrivals.size(); i++){
+                int mailItem = arrivals.get(i);
+                context.getEventSink().mailArrived(time, context.eventItem(mailItem));
                 mailPool.addToPool(mailItem);
             }
         }
@@ -0,0 +1,172 @@
+package simulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Mail items spilled to a temporary file in runs, each sorted by arrival time, and read back as one stream in
+ * arrival order by merging the runs. Items arriving in the same tick come back in the order they were written,
+ * so the stream is the written sequence sorted stably by arrival time.
+ *
+ * Writing holds one run in memory; reading holds a small buffer per run, so a sequence of any length is sorted
+ * in one pass over it. The file is deleted when closed.
+ */
+class MailRuns {
+
+    /** The fields of a record, in order */
+    static final int SEQUENCE = 0;
+    static final int DESTINATION = 1;
+    static final int ARRIVAL = 2;
+    static final int WEIGHT = 3;
+    static final int PRIORITY = 4;
+    static final int FIELDS = 5;
+    private static final int RECORD_BYTES = FIELDS * 4;
+    /** Records read from a run at a time */
+    private static final int READ_RECORDS = 256;
+
+    /** A run being read: its unread part of the file, and its current record */
+    private class Run {
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_RECORDS * RECORD_BYTES);
+        private final int[] record = new int[FIELDS];
+        private long position;
+        private final long end;
+
+        Run(long start, long end) {
+            this.position = start;
+            this.end = end;
+            buffer.limit(0);
+        }
+
+        /**
+         * Reads the next record of the run
+         * @return false if the run is exhausted
+         */
+        boolean advance() throws IOException {
+            if (!buffer.hasRemaining()) {
+                if (position == end) {
+                    return false;
+                }
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining()) {
+                    position += channel.read(buffer, position);
+                }
+                buffer.flip();
+            }
+            for (int i = 0; i < FIELDS; i++) record[i] = buffer.getInt();
+            return true;
+        }
+    }
+
+    private final FileChannel channel;
+    private long written;
+    /** The file offsets the runs start at, and the number of runs */
+    private long[] runStarts;
+    private int runCount;
+    private ByteBuffer writeBuffer;
+    private long[] sortKeys;
+
+    /** Runs with records left, by the arrival time then sequence number of their current record */
+    private PriorityQueue<Run> heads;
+
+    MailRuns() throws IOException {
+        Path path = Files.createTempFile("automail-mail", ".runs");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        this.runStarts = new long[16];
+        this.writeBuffer = ByteBuffer.allocate(0);
+        this.sortKeys = new long[0];
+    }
+
+    /**
+     * Sorts records by arrival time and writes them out as a run
+     * @param records count records of FIELDS ints each
+     */
+    void write(int[] records, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (sortKeys.length < count) {
+            sortKeys = new long[count];
+            writeBuffer = ByteBuffer.allocate(count * RECORD_BYTES);
+        }
+        /** Sort by arrival time, keeping the written order within a tick */
+        for (int i = 0; i < count; i++) {
+            sortKeys[i] = (long) records[i * FIELDS + ARRIVAL] << 32 | i;
+        }
+        Arrays.sort(sortKeys, 0, count);
+        writeBuffer.clear();
+        for (int i = 0; i < count; i++) {
+            int record = (int) sortKeys[i] * FIELDS;
+            for (int j = 0; j < FIELDS; j++) writeBuffer.putInt(records[record + j]);
+        }
+        writeBuffer.flip();
+        if (runCount == runStarts.length) {
+            runStarts = Arrays.copyOf(runStarts, runCount * 2);
+        }
+        runStarts[runCount++] = written;
+        while (writeBuffer.hasRemaining()) {
+            written += channel.write(writeBuffer, written);
+        }
+    }
+
+    /**
+     * Ends writing and starts reading the merged runs
+     */
+    void finish() throws IOException {
+        heads = new PriorityQueue<Run>(Math.max(1, runCount), (a, b) -> {
+            int byArrival = Integer.compare(a.record[ARRIVAL], b.record[ARRIVAL]);
+            return byArrival != 0 ? byArrival : Integer.compare(a.record[SEQUENCE], b.record[SEQUENCE]);
+        });
+        for (int i = 0; i < runCount; i++) {
+            Run run = new Run(runStarts[i], i + 1 < runCount ? runStarts[i + 1] : written);
+            if (run.advance()) {
+                heads.add(run);
+            }
+        }
+        writeBuffer = null;
+        sortKeys = null;
+    }
+
+    boolean isEmpty() {
+        return heads.isEmpty();
+    }
+
+    /**
+     * @return the arrival time of the next record, Integer.MAX_VALUE if there is none
+     */
+    int peekArrival() {
+        return heads.isEmpty() ? Integer.MAX_VALUE : heads.peek().record[ARRIVAL];
+    }
+
+    /**
+     * Reads the next record in arrival order
+     * @param record receives the FIELDS ints of the record
+     */
+    void next(int[] record) {
+        Run run = heads.poll();
+        System.arraycopy(run.record, 0, record, 0, FIELDS);
+        try {
+            if (run.advance()) {
+                heads.add(run);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read streamed mail", e);
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to close streamed mail", e);
+        }
+    }
+}
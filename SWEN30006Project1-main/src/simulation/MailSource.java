@@ -0,0 +1,30 @@
+package simulation;
+
+/**
+ * Supplies the mail arriving at the mailroom over a simulation run
+ */
+public interface MailSource {
+
+    /**
+     * @return the total number of mail items this source supplies over the run
+     */
+    int getMailCount();
+
+    /**
+     * Given the clock time, put the mail arriving now into the mailPool.
+     */
+    void addToMailPool();
+
+    /**
+     * @return the earliest time, no earlier than the current clock time, at which mail arrives,
+     * or Integer.MAX_VALUE if no more mail will arrive
+     */
+    int nextArrivalTime();
+
+    /**
+     * Drops the mail arriving at or before the given time without adding it to the mailPool, as when
+     * resuming a run whose mail up to that time has been recovered from a journal.
+     * Must be called before the clock is moved past the given time.
+     */
+    void discardArrivalsThrough(int time);
+}
@@ -0,0 +1,243 @@
+package simulation;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import automail.Automail;
+import automail.Building;
+import automail.Charge;
+import automail.MailItem;
+import automail.Robot;
+import automail.Robot.RobotState;
+import util.LatencyHistogram;
+import util.MetricsRegistry;
+import util.MetricsRegistry.Counter;
+
+/**
+ * Feeds a MetricsRegistry from a run and writes it to a file every interval ticks and at the end of the run.
+ *
+ * Sitting in front of the run's event sink, it counts each robot's time in each RobotState, its trips and the
+ * items it set off with, and the delivery latency of each item, the ticks from arrival to delivery, overall, per
+ * destination floor and per robot type. At the end of each tick it samples the depth of the MailPool and the
+ * number of robots of each type waiting in the mailroom. A sample counts for every tick until the next, so ticks
+ * skipped by the event driven engine are counted as well.
+ *
+ * The file is written in the Prometheus text format, under a temporary name first and then moved into place, so
+ * a reader never sees it half written.
+ */
+public class MetricsCollector implements SimulationEventSink {
+
+    private static final RobotState[] STATES = RobotState.values();
+
+    private final MetricsRegistry registry;
+    private final Path file;
+    private final int interval;
+    private final SimulationEventSink delegate;
+    private final Automail automail;
+    private final int lowestFloor;
+    private final String[] types;
+    /** The index in types of the type of each robot by number */
+    private final int[] typeOf;
+
+    /** The state each robot is in and the time it entered it, or the last time its time was counted */
+    private final RobotState[] states;
+    private final int[] since;
+    private final Counter[][] stateTicks;
+    private final Counter[] trips;
+    private final LatencyHistogram[] itemsPerTrip;
+    private final LatencyHistogram latency;
+    private final LatencyHistogram[] latencyByFloor;
+    private final LatencyHistogram[] latencyByType;
+    private final LatencyHistogram poolDepth;
+    private final LatencyHistogram[] waiting;
+
+    /** The last sample of the pool depth and waiting robots, and the time it was taken at, -1 before the first */
+    private int sampledAt;
+    private int sampledDepth;
+    private final int[] sampledWaiting;
+    private int nextExport;
+
+    private MetricsCollector(MetricsRegistry registry, Path file, int interval, Automail automail,
+                             IMailDelivery delivery) {
+        SimulationContext context = automail.getContext();
+        this.registry = registry;
+        this.file = file;
+        this.interval = interval;
+        this.delegate = context.getEventSink();
+        this.automail = automail;
+        Building building = context.getBuilding();
+        this.lowestFloor = building.getLowestFloor();
+
+        Robot[] robots = automail.getRobots();
+        this.types = Arrays.stream(robots).map(Robot::getRobotType).distinct().toArray(String[]::new);
+        this.typeOf = new int[robots.length];
+        for (Robot robot : robots) typeOf[robot.getNumber()] = Arrays.asList(types).indexOf(robot.getRobotType());
+        this.states = new RobotState[robots.length];
+        this.since = new int[robots.length];
+        int now = context.getClock().Time();
+        for (Robot robot : robots) {
+            states[robot.getNumber()] = robot.getCurrentState();
+            since[robot.getNumber()] = now;
+        }
+
+        registry.gauge("automail_clock_ticks", "Clock time of the run", "", () -> context.getClock().Time());
+        registry.gauge("automail_mail_delivered", "Mail items delivered", "", delivery::getDeliveredCount);
+        registry.gauge("automail_delivery_delay", "Total delay score of the delivered mail", "",
+                delivery::getTotal_delay);
+        this.poolDepth = registry.histogram("automail_pool_depth", "Mail items in the MailPool per tick", "");
+        this.stateTicks = new Counter[types.length][STATES.length];
+        this.trips = new Counter[types.length];
+        this.itemsPerTrip = new LatencyHistogram[types.length];
+        this.waiting = new LatencyHistogram[types.length];
+        this.latencyByType = new LatencyHistogram[types.length];
+        for (int t = 0; t < types.length; t++) {
+            String type = MetricsRegistry.labels("type", types[t]);
+            for (RobotState state : STATES) {
+                stateTicks[t][state.ordinal()] = registry.counter("automail_robot_state_ticks_total",
+                        "Robot ticks spent in each state", MetricsRegistry.labels("type", types[t], "state", state));
+            }
+            Counter[] typeStateTicks = stateTicks[t];
+            registry.gauge("automail_robot_utilisation", "Share of robot ticks spent away from the mailroom", type,
+                    () -> utilisation(typeStateTicks));
+            trips[t] = registry.counter("automail_trips_total", "Trips robots set off on", type);
+            itemsPerTrip[t] = registry.histogram("automail_items_per_trip", "Items robots set off with", type);
+            waiting[t] = registry.histogram("automail_waiting_robots", "Robots waiting in the mailroom per tick", type);
+        }
+        this.latency = registry.histogram("automail_delivery_latency_ticks", "Ticks from arrival to delivery", "");
+        this.latencyByFloor = new LatencyHistogram[building.getnFloors()];
+        for (int i = 0; i < latencyByFloor.length; i++) {
+            latencyByFloor[i] = registry.histogram("automail_delivery_latency_ticks", "Ticks from arrival to delivery",
+                    MetricsRegistry.labels("floor", lowestFloor + i));
+        }
+        for (int t = 0; t < types.length; t++) {
+            latencyByType[t] = registry.histogram("automail_delivery_latency_ticks", "Ticks from arrival to delivery",
+                    MetricsRegistry.labels("type", types[t]));
+        }
+
+        this.sampledAt = -1;
+        this.sampledWaiting = new int[types.length];
+        this.nextExport = interval > 0 ? (now / interval + 1) * interval : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Collects the metrics of a run from now on
+     * @param file the file the metrics are written to
+     * @param interval the number of ticks between writes, 0 to write only at the end of the run
+     * @param automail the robots of the run
+     * @param delivery the record of delivered mail
+     * @return the collector, installed as the run's event sink
+     */
+    public static MetricsCollector install(Path file, int interval, Automail automail, IMailDelivery delivery) {
+        MetricsCollector collector = new MetricsCollector(new MetricsRegistry(), file, interval, automail, delivery);
+        automail.getContext().setEventSink(collector);
+        return collector;
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    private static double utilisation(Counter[] stateTicks) {
+        long total = 0;
+        for (Counter ticks : stateTicks) total += ticks.get();
+        long away = total - stateTicks[RobotState.WAITING.ordinal()].get();
+        return total == 0 ? 0 : away / (double) total;
+    }
+
+    public void mailArrived(int time, MailItem mailItem) {
+        delegate.mailArrived(time, mailItem);
+    }
+
+    public void stateChanged(int time, Robot robot, RobotState from, RobotState to) {
+        delegate.stateChanged(time, robot, from, to);
+        int number = robot.getNumber();
+        int type = typeOf[number];
+        stateTicks[type][states[number].ordinal()].add(time - since[number]);
+        states[number] = to;
+        since[number] = time;
+        if (from == RobotState.WAITING && to == RobotState.DELIVERING) {
+            trips[type].add(1);
+            itemsPerTrip[type].record(robot.getItemCount());
+        }
+    }
+
+    public void deliveryStarted(int time, Robot robot, MailItem mailItem) {
+        delegate.deliveryStarted(time, robot, mailItem);
+    }
+
+    public void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge) {
+        delegate.delivered(time, robot, deliveredCount, mailItem, charge);
+        int ticks = time - mailItem.getArrivalTime();
+        latency.record(ticks);
+        latencyByFloor[mailItem.getDestFloor() - lowestFloor].record(ticks);
+        latencyByType[typeOf[robot.getNumber()]].record(ticks);
+    }
+
+    public void holdChanged(int time, Robot robot, int heldSince) {
+        delegate.holdChanged(time, robot, heldSince);
+    }
+
+    /**
+     * Samples the pool and the waiting robots, and writes the metrics out if due
+     */
+    public void tickCompleted(int time) {
+        delegate.tickCompleted(time);
+        countSample(time);
+        sampledAt = time;
+        sampledDepth = automail.getMailPool().size();
+        Arrays.fill(sampledWaiting, 0);
+        for (Robot robot : automail.getRobots()) {
+            if (robot.getCurrentState() == RobotState.WAITING) sampledWaiting[typeOf[robot.getNumber()]]++;
+        }
+        if (time >= nextExport) {
+            nextExport = (time / interval + 1) * interval;
+            export(time + 1);
+        }
+    }
+
+    /**
+     * Counts the last sample for each tick from when it was taken until the given time
+     */
+    private void countSample(int time) {
+        if (sampledAt < 0) {
+            return;
+        }
+        poolDepth.record(sampledDepth, time - sampledAt);
+        for (int t = 0; t < types.length; t++) waiting[t].record(sampledWaiting[t], time - sampledAt);
+        sampledAt = time;
+    }
+
+    /**
+     * Counts the time up to the given time and writes the metrics to the file
+     * @param time the clock time the metrics are taken at, i.e. the first tick not yet run
+     */
+    public void export(int time) {
+        countSample(time);
+        for (int i = 0; i < states.length; i++) {
+            stateTicks[typeOf[i]][states[i].ordinal()].add(time - since[i]);
+            since[i] = time;
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temporary))) {
+                registry.writeTo(out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write metrics", e);
+        }
+    }
+
+    public void flush() {
+        delegate.flush();
+    }
+
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,123 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import automail.Building;
+import com.unimelb.swen30006.wifimodem.WifiModem;
+import exceptions.ExcessiveDeliveryException;
+import util.Configuration;
+
+/**
+ * Runs many simulations concurrently on a fork-join pool, each with its own SimulationContext.
+ * The wifi modem is a single device shared by all runs, so when fees are charged the service fees seen by a run
+ * depend on how its lookups interleave with those of the other runs.
+ */
+public class ParallelSimulationRunner {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism the number of simulations to run at once
+     */
+    public ParallelSimulationRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Runs one simulation per configuration, discarding their logs, journals, snapshots and metrics
+     * @param configurations the configuration of each run, including its seed
+     * @return the result of each run, in the order of the configurations
+     */
+    public List<SimulationResult> runAll(List<Configuration> configurations) throws Exception {
+        List<Callable<SimulationResult>> runs = new ArrayList<Callable<SimulationResult>>();
+        for (Configuration configuration : configurations) {
+            runs.add(() -> runOne(configuration));
+        }
+        List<SimulationResult> results = new ArrayList<SimulationResult>();
+        for (Future<SimulationResult> result : pool.invokeAll(runs)) {
+            results.add(result.get());
+        }
+        return results;
+    }
+
+    private static SimulationResult runOne(Configuration configuration) throws Exception {
+        SimulationContext context = new SimulationContext(detached(configuration), SimulationEventSink.NONE);
+        try {
+            return new Simulation(context, seedMap(configuration)).run();
+        } catch (ExcessiveDeliveryException e) {
+            throw new IllegalStateException("Simulation unable to complete.", e);
+        }
+    }
+
+    /**
+     * @return the seed map for the configuration's seed, randomised if it has none
+     */
+    static HashMap<Boolean, Integer> seedMap(Configuration configuration) {
+        HashMap<Boolean, Integer> seedMap = new HashMap<>();
+        String seedProp = configuration.getProperty(Configuration.SEED_KEY);
+        if (seedProp == null) {
+            seedMap.put(false, 0);
+        } else {
+            seedMap.put(true, Integer.parseInt(seedProp));
+        }
+        return seedMap;
+    }
+
+    /**
+     * @return a copy of the configuration that neither journals, snapshots, resumes nor writes metrics, as runs
+     * sharing a file would overwrite each other's
+     */
+    static Configuration detached(Configuration configuration) {
+        Configuration detached = new Configuration(configuration);
+        detached.setProperty(Configuration.JOURNAL_FILE_KEY, "");
+        detached.setProperty(Configuration.SNAPSHOT_INTERVAL_KEY, "0");
+        detached.setProperty(Configuration.SNAPSHOT_RESUME_KEY, "");
+        detached.setProperty(Configuration.METRICS_FILE_KEY, "");
+        return detached;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Each argument describes one run as a seed optionally followed by property overrides,
+     * e.g. "30006" or "42,Floors=30,Bulk_Robots=5". Properties not overridden come from automail.properties.
+     */
+    public static void main(String[] args) throws Exception {
+        Configuration base = Configuration.getInstance();
+        List<Configuration> configurations = new ArrayList<Configuration>();
+        for (String arg : args) {
+            String[] parts = arg.split(",");
+            Configuration configuration = new Configuration(base);
+            configuration.setProperty(Configuration.SEED_KEY, parts[0]);
+            for (int i = 1; i < parts.length; i++) {
+                String[] property = parts[i].split("=", 2);
+                configuration.setProperty(property[0].trim(), property[1].trim());
+            }
+            configurations.add(configuration);
+        }
+
+        /** Install the modem & turn on the modem **/
+        WifiModem wifiModem = WifiModem.getInstance(Building.fromConfiguration(base).getMailroomLocationFloor());
+        System.out.println(wifiModem.Turnon());
+
+        ParallelSimulationRunner runner = new ParallelSimulationRunner(Runtime.getRuntime().availableProcessors());
+        try {
+            List<SimulationResult> results = runner.runAll(configurations);
+            for (int i = 0; i < results.size(); i++) {
+                SimulationResult result = results.get(i);
+                System.out.printf("%-30s Final Delivery time: %6d | Delay: %.2f%n", args[i], result.getFinalTime(),
+                        result.getTotalDelay());
+            }
+        } finally {
+            runner.shutdown();
+        }
+        System.out.println(wifiModem.Turnoff());
+    }
+}
@@ -1,31 +1,57 @@
 package simulation;
 
 import automail.Automail;
-import automail.Building;
+import automail.BatchingDispatchPolicy;
+import automail.ConcurrentMailPool;
+import automail.Fleet;
 import automail.MailPool;
+import automail.Robot;
 import com.unimelb.swen30006.wifimodem.WifiModem;
 import exceptions.ExcessiveDeliveryException;
 import exceptions.ItemTooHeavyException;
 import util.Configuration;
 import util.ReportDelivery;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
 import java.util.HashMap;
 
 /**
  * This class simulates the behaviour of AutoMail
  */
 public class Simulation {
-	
-    /** Constant for the mail generator */
-    private static IMailDelivery iMailDelivery;
+
+    /** The state of this simulation run */
+    private final SimulationContext context;
+
+    /** Used to see whether a seed is initialized or not */
+    private final HashMap<Boolean, Integer> seedMap;
+
+    private IMailDelivery iMailDelivery;
+    private MailPool mailPool;
+    private ReportDelivery reportDelivery;
+    private Automail automail;
+    private MailSource mailSource;
+    /** Collects the metrics of the run, null if not asked to */
+    private MetricsCollector metrics;
+    /** A snapshot of another run to carry on from, null to start from the beginning */
+    private byte[] forkedFrom;
+
+    /**
+     * @param context the state of this simulation run
+     * @param seedMap the random seed for generating mails, keyed by whether it is initialized
+     */
+    public Simulation(SimulationContext context, HashMap<Boolean, Integer> seedMap) {
+        this.context = context;
+        this.seedMap = seedMap;
+    }
 
     public static void main(String[] args) throws Exception {
     	
     	/** Load properties for simulation based on either default or a properties file.**/
     	Configuration configuration = Configuration.getInstance();
 
-        iMailDelivery = new ReportDelivery();
-
         /** This code section below is to save a random seed for generating mails.
          * If a program argument is entered, the first argument will be a random seed.
          * If not a random seed will be from a properties file. 
@@ -47,58 +73,227 @@ public class Simulation {
         System.out.println("#A Random Seed: " + (seed == null ? "null" : seed.toString()));
 
         // setup the clock
-        Clock.MAIL_RECEVING_LENGTH = Integer.parseInt(configuration.getProperty(Configuration.MAIL_RECEIVING_LENGTH_KEY));
+        SimulationContext context = new SimulationContext(configuration, createEventSink(configuration));
         
         /** Install the modem & turn on the modem **/
-     	WifiModem wifiModem = WifiModem.getInstance(Building.getInstance().getMailroomLocationFloor());
+     	WifiModem wifiModem = WifiModem.getInstance(context.getBuilding().getMailroomLocationFloor());
      	System.out.println("Setting up Wifi Modem");
      	System.out.println(wifiModem.Turnon());
 
+        Simulation simulation = new Simulation(context, seedMap);
+        try {
+            simulation.run();
+        } catch (ExcessiveDeliveryException|ItemTooHeavyException e) {
+            e.printStackTrace();
+            System.out.println("Simulation unable to complete.");
+            System.exit(0);
+        }
+
+        simulation.printResults();
+        if (simulation.mailPool.getDispatchPolicy() instanceof BatchingDispatchPolicy) {
+            System.out.println(simulation.mailPool.getDispatchPolicy());
+        }
+        if (context.getFeeCache() != null) {
+            System.out.println(context.getFeeCache());
+        }
+        context.getEventSink().close();
+        System.out.println(wifiModem.Turnoff());
+    }
+
+    /**
+     * @return the event sink selected by the Event_Log property: async, sync or off
+     */
+    private static SimulationEventSink createEventSink(Configuration configuration) {
+        switch (configuration.getProperty(Configuration.EVENT_LOG_KEY)) {
+            case "off":
+                return SimulationEventSink.NONE;
+            case "sync":
+                return new TextEventSink(System.out);
+            default:
+                return new AsyncEventSink(new TextEventSink(System.out), 1 << 16);
+        }
+    }
+
+    /**
+     * Runs the simulation until all generated mail has been delivered
+     * @return the final time and delay of the run
+     */
+    public SimulationResult run() throws ExcessiveDeliveryException, ItemTooHeavyException, Exception {
+        if (automail == null) {
+            setUp();
+        }
+        Configuration configuration = context.getConfiguration();
+        try {
+            String engine = configuration.getProperty(Configuration.SIMULATION_ENGINE_KEY);
+            if (engine.equals("event")) {
+                /** Jump the clock from event to event */
+                new EventDrivenEngine(context, automail, mailSource, iMailDelivery).run();
+            } else {
+                while(iMailDelivery.getDeliveredCount() != mailSource.getMailCount())
+                {
+                    // System.out.printf("Delivered: %4d; Created: %4d%n", MAIL_DELIVERED.size(), mailGenerator.MAIL_TO_CREATE);
+                    runTick(automail, mailSource);
+                    context.getClock().Tick();
+                }
+            }
+            if (metrics != null) {
+                metrics.export(context.getClock().Time());
+            }
+        } finally {
+            /** Everything logged so far must be out before anything else is printed */
+            context.getEventSink().flush();
+        }
+
+        return new SimulationResult(seedMap.get(true), context.getClock().Time(), iMailDelivery.getTotal_delay(),
+                iMailDelivery.getDeliveredCount());
+    }
+
+    /**
+     * Runs the simulation tick by tick up to and including the given tick, so that it can be forked
+     * @param tick the last tick to run
+     * @return a snapshot of the run at the end of the tick, from which runFrom() carries on
+     * @throws IllegalStateException if all mail is delivered before the tick
+     */
+    public byte[] runUntil(int tick) throws ExcessiveDeliveryException, ItemTooHeavyException, Exception {
+        setUp();
+        try {
+            while (iMailDelivery.getDeliveredCount() != mailSource.getMailCount()) {
+                runTick(automail, mailSource);
+                if (context.getClock().Time() == tick) {
+                    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+                    Snapshot.write(snapshot, context, automail, reportDelivery, mailSource, seedMap.get(true));
+                    return snapshot.toByteArray();
+                }
+                context.getClock().Tick();
+            }
+        } finally {
+            context.getEventSink().flush();
+        }
+        throw new IllegalStateException("All mail was delivered before tick " + tick);
+    }
+
+    /**
+     * Carries on from where another run stopped until all generated mail has been delivered. This run's
+     * configuration may differ from the other run's, down to the number of robots of each type.
+     * @param snapshot a snapshot of the other run, as returned by runUntil()
+     * @return the final time and delay of the run
+     */
+    public SimulationResult runFrom(byte[] snapshot) throws ExcessiveDeliveryException, ItemTooHeavyException,
+            Exception {
+        forkedFrom = snapshot;
+        setUp();
+        return run();
+    }
+
+    /**
+     * Builds the MailPool, robots and mail source of the run, and restores or records the run if configured to
+     */
+    private void setUp() throws Exception {
+        Configuration configuration = context.getConfiguration();
+        reportDelivery = new ReportDelivery(context);
+        iMailDelivery = reportDelivery;
+
         /**
          * This code section is for running a simulation
          */
 
         /** Instantiate MailPool and Automail */
-     	MailPool mailPool = new MailPool();
-        int num_regular_robots = Integer.parseInt(configuration.getProperty(Configuration.REGULAR_ROBOTS_KEY));
-        int num_fast_robots = Integer.parseInt(configuration.getProperty(Configuration.FAST_ROBOTS_KEY));
-        int num_bulk_robots = Integer.parseInt(configuration.getProperty(Configuration.BULK_ROBOTS_KEY));
-        int total_robots = num_regular_robots + num_fast_robots + num_bulk_robots;
-        Automail automail = new Automail(mailPool, iMailDelivery, num_regular_robots, num_fast_robots, num_bulk_robots);
-
-        int mail_to_create = Integer.parseInt(configuration.getProperty(Configuration.MAIL_TO_CREATE_KEY));
-        int mail_max_weight = Integer.parseInt(configuration.getProperty(Configuration.MAIL_MAX_WEIGHT_KEY));
-        MailGenerator mailGenerator = new MailGenerator(mail_to_create, mail_max_weight, mailPool, seedMap);
-        
-        /** Generate all the mails */
-        mailGenerator.generateAllMail();
-
-        while(iMailDelivery.getDeliveredItems().size() != mailGenerator.MAIL_TO_CREATE)
-        {
-        	// System.out.printf("Delivered: %4d; Created: %4d%n", MAIL_DELIVERED.size(), mailGenerator.MAIL_TO_CREATE);
-            mailGenerator.addToMailPool();
-            try {
-                automail.getMailPool().loadItemsToRobot();
-				for (int i=0; i < total_robots; i++)
-				{
-					automail.getRobots()[i].operate();
-				}
-			} catch (ExcessiveDeliveryException|ItemTooHeavyException e) {
-				e.printStackTrace();
-				System.out.println("Simulation unable to complete.");
-				System.exit(0);
-			}
-
-            Clock.Tick();
+     	if (configuration.getProperty(Configuration.MAIL_POOL_KEY).equals("concurrent")) {
+     	    mailPool = new ConcurrentMailPool(context);
+     	} else {
+     	    mailPool = new MailPool(context);
+     	}
+        automail = Automail.fromConfiguration(context, mailPool, iMailDelivery);
+
+        if (configuration.getProperty(Configuration.MAIL_SOURCE_KEY).equals("trace")) {
+            /** Replay recorded arrivals */
+            mailSource = TraceMailSource.open(context, mailPool, configuration.getProperty(Configuration.TRACE_FILE_KEY));
+        } else {
+            int mail_to_create = Integer.parseInt(configuration.getProperty(Configuration.MAIL_TO_CREATE_KEY));
+            int mail_max_weight = Integer.parseInt(configuration.getProperty(Configuration.MAIL_MAX_WEIGHT_KEY));
+            MailGenerator mailGenerator = new MailGenerator(context, mail_to_create, mail_max_weight, mailPool, seedMap);
+
+            /** Generate all the mails, or stream them in chunks */
+            int mail_stream_chunk = Integer.parseInt(configuration.getProperty(Configuration.MAIL_STREAM_CHUNK_KEY));
+            if (mail_stream_chunk > 0) {
+                mailGenerator.streamMail(mail_stream_chunk);
+            } else {
+                mailGenerator.generateAllMail();
+            }
+            mailSource = mailGenerator;
         }
 
-        printResults();
-        System.out.println(wifiModem.Turnoff());
+        String snapshotResume = configuration.getProperty(Configuration.SNAPSHOT_RESUME_KEY);
+        if (forkedFrom != null) {
+            /** Carry on from where the run this was forked from stopped */
+            Snapshot.restore(new ByteArrayInputStream(forkedFrom), context, automail, reportDelivery, mailSource,
+                    seedMap.get(true), true);
+        } else if (!snapshotResume.isEmpty()) {
+            /** Start from the tick after a snapshot */
+            Snapshot.restore(Paths.get(snapshotResume), context, automail, reportDelivery, mailSource,
+                    seedMap.get(true));
+        }
+
+        String journalFile = configuration.getProperty(Configuration.JOURNAL_FILE_KEY);
+        if (!journalFile.isEmpty()) {
+            /** Journal the run, resuming it from the journal if asked to */
+            int groupTicks = Integer.parseInt(configuration.getProperty(Configuration.JOURNAL_GROUP_TICKS_KEY));
+            if (Boolean.parseBoolean(configuration.getProperty(Configuration.JOURNAL_RECOVER_KEY))) {
+                Journal.recover(Paths.get(journalFile), context, automail, reportDelivery, mailSource, groupTicks);
+            } else {
+                Journal.create(Paths.get(journalFile), context, automail, groupTicks);
+            }
+        }
+
+        int snapshotInterval = Integer.parseInt(configuration.getProperty(Configuration.SNAPSHOT_INTERVAL_KEY));
+        String snapshotFile = configuration.getProperty(Configuration.SNAPSHOT_FILE_KEY);
+        if (snapshotInterval > 0 && !snapshotFile.isEmpty()) {
+            /** Snapshot the run every snapshotInterval ticks */
+            Snapshot.schedule(snapshotFile, snapshotInterval, context, automail, reportDelivery, mailSource,
+                    seedMap.get(true));
+        }
+
+        String metricsFile = configuration.getProperty(Configuration.METRICS_FILE_KEY);
+        if (!metricsFile.isEmpty()) {
+            /** Collect the metrics of the run, writing them out every metricsInterval ticks and at the end */
+            int metricsInterval = Integer.parseInt(configuration.getProperty(Configuration.METRICS_INTERVAL_KEY));
+            metrics = MetricsCollector.install(Paths.get(metricsFile), metricsInterval, automail, iMailDelivery);
+        }
+
+        /** Time the ticks if asked to, now or later in the run */
+        context.getTickProfiler().install(automail);
+    }
+
+    /**
+     * Runs a single time step: new mail arrives, waiting robots are loaded and every robot operates
+     */
+    public static void runTick(Automail automail, MailSource mailSource)
+            throws ExcessiveDeliveryException, ItemTooHeavyException, Exception {
+        SimulationContext context = automail.getContext();
+        TickProfiler profiler = context.getTickProfiler();
+        long start = profiler.begin();
+        mailSource.addToMailPool();
+        start = profiler.end(TickProfiler.Phase.ARRIVALS, start);
+        automail.getMailPool().loadItemsToRobot();
+        start = profiler.end(TickProfiler.Phase.LOADING, start);
+        Fleet fleet = automail.getFleet();
+        if (fleet != null) {
+            /** The robots are operated in one pass over the fleet, so the time is not split by robot type */
+            fleet.operate(context.getClock().Time());
+            profiler.end(TickProfiler.Phase.OPERATING, start);
+        } else {
+            for (Robot robot : automail.getRobots()) {
+                robot.operate();
+                start = profiler.robotOperated(robot, start);
+            }
+        }
+        context.getEventSink().tickCompleted(context.getClock().Time());
     }
 
-    public static void printResults(){
-        System.out.println("T: "+Clock.Time()+" | Simulation complete!");
-        System.out.println("Final Delivery time: "+Clock.Time());
+    public void printResults(){
+        int time = context.getClock().Time();
+        System.out.println("T: "+time+" | Simulation complete!");
+        System.out.println("Final Delivery time: "+time);
         System.out.printf("Delay: %.2f%n", iMailDelivery.getTotal_delay());
     }
 }
@@ -0,0 +1,160 @@
+package simulation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import automail.Building;
+import automail.CachingChargeHandlerAdapter;
+import automail.ChargeHandlerAdapter;
+import automail.ChargeHandlerAdapterModem;
+import automail.MailItem;
+import automail.MailStore;
+import automail.RobotTypeStats;
+import com.unimelb.swen30006.wifimodem.WifiModem;
+import util.Configuration;
+
+/**
+ * Holds all the state belonging to a single simulation run, so that several runs can share one JVM.
+ * A context is confined to the thread running its simulation.
+ */
+public class SimulationContext {
+
+    private final Configuration configuration;
+    private final Building building;
+    private final Clock clock;
+    private SimulationEventSink eventSink;
+    private final Map<String, RobotTypeStats> robotTypeStats;
+    private ChargeHandlerAdapter chargeHandlerAdapter;
+    private CachingChargeHandlerAdapter feeCache;
+    private int mailCreated;
+    private final MailStore mailStore;
+    private final TickProfiler tickProfiler;
+
+    /**
+     * @param configuration the properties for this run
+     * @param eventSink receives the events of the run
+     */
+    public SimulationContext(Configuration configuration, SimulationEventSink eventSink) {
+        this.configuration = configuration;
+        this.building = Building.fromConfiguration(configuration);
+        this.clock = new Clock(Integer.parseInt(configuration.getProperty(Configuration.MAIL_RECEIVING_LENGTH_KEY)));
+        this.eventSink = eventSink;
+        this.robotTypeStats = new HashMap<String, RobotTypeStats>();
+        this.mailCreated = 0;
+        this.mailStore = new MailStore();
+        this.tickProfiler = TickProfiler.fromConfiguration(configuration);
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    public Building getBuilding() {
+        return building;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public SimulationEventSink getEventSink() {
+        return eventSink;
+    }
+
+    /**
+     * @param eventSink receives the events of the run from now on, e.g. a sink wrapping the current one
+     */
+    public void setEventSink(SimulationEventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    /**
+     * @param robotType the type prefix of the robot, e.g. "R"
+     * @return the operating statistics shared by all robots of that type in this run
+     */
+    public RobotTypeStats getRobotTypeStats(String robotType) {
+        return robotTypeStats.computeIfAbsent(robotType, type -> new RobotTypeStats());
+    }
+
+    /**
+     * @return the profiler timing the ticks of this run
+     */
+    public TickProfiler getTickProfiler() {
+        return tickProfiler;
+    }
+
+    /**
+     * Gets the charge handler of this run, connecting it to the mailroom's wifi modem on first use
+     * @return ChargeHandler instance
+     * @throws Exception if the modem cannot be installed
+     */
+    public ChargeHandlerAdapter getChargeHandlerAdapter() throws Exception {
+        if (chargeHandlerAdapter == null) {
+            WifiModem wifiModem = WifiModem.getInstance(building.getMailroomLocationFloor());
+            chargeHandlerAdapter = new ChargeHandlerAdapterModem(wifiModem);
+            int ttl = Integer.parseInt(configuration.getProperty(Configuration.FEE_CACHE_TTL_KEY));
+            if (ttl >= 0) {
+                /** Serve fees from a cache in front of the modem, prefetching off the simulation thread */
+                feeCache = new CachingChargeHandlerAdapter(chargeHandlerAdapter,
+                        CachingChargeHandlerAdapter.PREFETCHER, clock, ttl,
+                        Integer.parseInt(configuration.getProperty(Configuration.FEE_CACHE_MAX_STALE_KEY)),
+                        Integer.parseInt(configuration.getProperty(Configuration.FEE_CACHE_SIZE_KEY)));
+                chargeHandlerAdapter = feeCache;
+            }
+            /** Timed outermost, so only the simulation thread ever touches the profiler */
+            chargeHandlerAdapter = tickProfiler.timed(chargeHandlerAdapter);
+        }
+        return chargeHandlerAdapter;
+    }
+
+    /**
+     * @return the cache in front of the charge handler, or null if fees are not cached
+     * @throws Exception if the modem cannot be installed
+     */
+    public CachingChargeHandlerAdapter getFeeCache() throws Exception {
+        getChargeHandlerAdapter();
+        return feeCache;
+    }
+
+    /**
+     * Uses the given charge handler instead of connecting to the wifi modem
+     * @param chargeHandlerAdapter the charge handler for this run
+     */
+    public void setChargeHandlerAdapter(ChargeHandlerAdapter chargeHandlerAdapter) {
+        this.chargeHandlerAdapter = chargeHandlerAdapter;
+    }
+
+    /**
+     * @return the store holding every mail item of this run
+     */
+    public MailStore getMailStore() {
+        return mailStore;
+    }
+
+    /**
+     * @param handle the handle of a mail item in the MailStore
+     * @return the item to report to the event sink, or null if the sink does not look at mail items
+     */
+    public MailItem eventItem(int handle) {
+        return eventSink.needsDetails() ? mailStore.item(handle) : null;
+    }
+
+    /**
+     * @return the identifier for the next mail item created in this run
+     */
+    public int nextMailId() {
+        return mailCreated++;
+    }
+
+    /**
+     * Reserves a block of consecutive mail item identifiers. The MailStore only makes room for the items as they
+     * are stored.
+     * @param count the number of identifiers to reserve
+     * @return the first identifier of the block
+     */
+    public int reserveMailIds(int count) {
+        int first = mailCreated;
+        mailCreated += count;
+        return first;
+    }
+}
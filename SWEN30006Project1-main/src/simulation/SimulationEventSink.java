@@ -0,0 +1,92 @@
+package simulation;
+
+import automail.Charge;
+import automail.MailItem;
+import automail.Robot;
+import automail.Robot.RobotState;
+
+/**
+ * Receives the events of a simulation run as they happen. Events are reported on the simulation thread,
+ * so an implementation must capture anything it needs from a robot before returning.
+ */
+public interface SimulationEventSink {
+
+    /** Discards every event */
+    SimulationEventSink NONE = new SimulationEventSink() {
+        public void mailArrived(int time, MailItem mailItem) {}
+        public void stateChanged(int time, Robot robot, RobotState from, RobotState to) {}
+        public void deliveryStarted(int time, Robot robot, MailItem mailItem) {}
+        public void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge) {}
+        public void flush() {}
+        public void close() {}
+        public boolean needsDetails() {
+            return false;
+        }
+    };
+
+    /**
+     * A mail item has arrived at the mailroom and is added to the MailPool
+     * @param time the clock time
+     * @param mailItem the arriving mail item
+     */
+    void mailArrived(int time, MailItem mailItem);
+
+    /**
+     * A robot changes state
+     * @param time the clock time
+     * @param robot the robot changing state
+     * @param from the state the robot is leaving
+     * @param to the state the robot is entering
+     */
+    void stateChanged(int time, Robot robot, RobotState from, RobotState to);
+
+    /**
+     * A robot sets off to deliver a mail item
+     * @param time the clock time
+     * @param robot the delivering robot
+     * @param mailItem the mail item it heads off to deliver
+     */
+    void deliveryStarted(int time, Robot robot, MailItem mailItem);
+
+    /**
+     * A robot has delivered a mail item
+     * @param time the clock time
+     * @param robot the delivering robot
+     * @param deliveredCount the number of mail items delivered so far, including this one
+     * @param mailItem the delivered mail item
+     * @param charge the charge for the delivery, null if fees are not charged
+     */
+    void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge);
+
+    /**
+     * A robot starts or stops being held in the mailroom for a fuller tube
+     * @param time the clock time
+     * @param robot the robot
+     * @param heldSince the tick the robot is held since, BatchingDispatchPolicy.NOT_HELD if it is released
+     */
+    default void holdChanged(int time, Robot robot, int heldSince) {}
+
+    /**
+     * Every robot has operated for the tick; nothing more happens at this clock time
+     * @param time the clock time
+     */
+    default void tickCompleted(int time) {}
+
+    /**
+     * @return false if the sink never looks at the mail items and charges it is given, so that the simulation
+     * can pass null instead of making them
+     */
+    default boolean needsDetails() {
+        return true;
+    }
+
+    /**
+     * Blocks until all events reported so far have been written out
+     */
+    void flush();
+
+    /**
+     * Flushes and releases any resources held by the sink
+     */
+    void close();
+}
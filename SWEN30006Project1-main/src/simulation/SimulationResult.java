@@ -0,0 +1,36 @@
+package simulation;
+
+/**
+ * The outcome of a completed simulation run
+ */
+public class SimulationResult {
+
+    /** The seed used to generate mail, null if the run was randomised */
+    private final Integer seed;
+    private final int finalTime;
+    private final double totalDelay;
+    private final int itemsDelivered;
+
+    public SimulationResult(Integer seed, int finalTime, double totalDelay, int itemsDelivered) {
+        this.seed = seed;
+        this.finalTime = finalTime;
+        this.totalDelay = totalDelay;
+        this.itemsDelivered = itemsDelivered;
+    }
+
+    public Integer getSeed() {
+        return seed;
+    }
+
+    public int getFinalTime() {
+        return finalTime;
+    }
+
+    public double getTotalDelay() {
+        return totalDelay;
+    }
+
+    public int getItemsDelivered() {
+        return itemsDelivered;
+    }
+}
@@ -0,0 +1,424 @@
+package simulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import automail.Automail;
+import automail.BatchingDispatchPolicy;
+import automail.CachingChargeHandlerAdapter;
+import automail.Charge;
+import automail.DispatchPolicy;
+import automail.MailItem;
+import automail.MailPool;
+import automail.MailStore;
+import automail.Robot;
+import automail.Robot.RobotState;
+import util.IntDeque;
+import util.ReportDelivery;
+
+/**
+ * A binary snapshot of the whole state of a simulation run at the end of a tick, from which the run can be
+ * resumed later, or on another machine, with the same configuration and seed.
+ *
+ * A snapshot holds the clock time, every robot's state, floors, dispatch flag, hand and tube, the robots waiting
+ * in the mailroom and the pool's contents in order, the mail items they refer to, the delivered mail and total
+ * delay so far, the operating time of each robot type, the cached fees if fees are cached and, if robots are
+ * held for a fuller tube, the tick each has been held since and the batching counters. Mail yet to
+ * arrive is not held: the run's MailSource supplies it again on resume. The file ends with a CRC32 of its
+ * contents and is written under a temporary name first, so an interrupted write never replaces a good snapshot.
+ *
+ * Installed as the run's event sink, a Snapshot writes one at the end of every interval-th tick. Fees looked up
+ * after resuming come from the modem's state at that point.
+ */
+public class Snapshot implements SimulationEventSink {
+
+    private static final int MAGIC = 0x414D534E;
+    private static final int VERSION = 3;
+
+    private final SimulationEventSink delegate;
+    private final String file;
+    private final int interval;
+    private final SimulationContext context;
+    private final Automail automail;
+    private final ReportDelivery delivery;
+    private final MailSource mailSource;
+    private final Integer seed;
+    private int nextSnapshot;
+
+    private Snapshot(SimulationEventSink delegate, String file, int interval, SimulationContext context,
+                     Automail automail, ReportDelivery delivery, MailSource mailSource, Integer seed) {
+        this.delegate = delegate;
+        this.file = file;
+        this.interval = interval;
+        this.context = context;
+        this.automail = automail;
+        this.delivery = delivery;
+        this.mailSource = mailSource;
+        this.seed = seed;
+        this.nextSnapshot = (context.getClock().Time() / interval + 1) * interval;
+    }
+
+    /**
+     * Writes a snapshot of the run every interval ticks from now on
+     * @param file the snapshot file; %d in it is replaced by the tick, otherwise each snapshot replaces the last
+     * @param interval the number of ticks between snapshots
+     * @param context the simulation run; its event sink is wrapped by the snapshot writer
+     * @param seed the run's random seed, or null if it has none
+     * @return the snapshot writer, installed as the run's event sink
+     */
+    public static Snapshot schedule(String file, int interval, SimulationContext context, Automail automail,
+                                    ReportDelivery delivery, MailSource mailSource, Integer seed) {
+        Snapshot snapshot = new Snapshot(context.getEventSink(), file, interval, context, automail, delivery,
+                mailSource, seed);
+        context.setEventSink(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Writes a snapshot of the run as it is at the end of the current tick
+     * @param path the snapshot file, replaced once the snapshot has been written in full
+     * @param seed the run's random seed, or null if it has none
+     */
+    public static void write(Path path, SimulationContext context, Automail automail, ReportDelivery delivery,
+                             MailSource mailSource, Integer seed) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+            write(out, context, automail, delivery, mailSource, seed);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes a snapshot of the run as it is at the end of the current tick to a stream, e.g. to keep in memory
+     * @param seed the run's random seed, or null if it has none
+     */
+    public static void write(OutputStream stream, SimulationContext context, Automail automail,
+                             ReportDelivery delivery, MailSource mailSource, Integer seed) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(stream, crc));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(seed != null);
+        out.writeInt(seed == null ? 0 : seed);
+        out.writeInt(mailSource.getMailCount());
+        out.writeInt(context.getClock().Time());
+
+        MailStore mailStore = context.getMailStore();
+        MailPool mailPool = automail.getMailPool();
+        Robot[] robots = automail.getRobots();
+        int[] pooled = mailPool.getPooledItems();
+        int carried = 0;
+        for (Robot robot : robots) carried += robot.getItemCount();
+        out.writeInt(pooled.length + carried);
+        for (int mailItem : pooled) writeItem(out, mailStore, mailItem);
+        for (Robot robot : robots) {
+            if (robot.getDeliveryItem() != MailStore.NONE) writeItem(out, mailStore, robot.getDeliveryItem());
+            for (int i = 0; i < robot.getCurrentTubeLength(); i++) writeItem(out, mailStore, robot.getTube()[i]);
+        }
+
+        out.writeInt(robots.length);
+        for (Robot robot : robots) {
+            out.writeUTF(robot.getRobotType());
+            out.writeByte(robot.getCurrentState().ordinal());
+            out.writeInt(robot.getCurrentFloor());
+            out.writeInt(robot.getDestinationFloor());
+            out.writeInt(robot.getDeliveryCounter());
+            out.writeBoolean(robot.getReceivedDispatch());
+            out.writeInt(number(mailStore, robot.getDeliveryItem()));
+            out.writeInt(robot.getCurrentTubeLength());
+            for (int i = 0; i < robot.getCurrentTubeLength(); i++) {
+                out.writeInt(mailStore.getNumber(robot.getTube()[i]));
+            }
+        }
+        Robot[] waiting = mailPool.getWaitingRobots();
+        out.writeInt(waiting.length);
+        for (Robot robot : waiting) out.writeInt(robot.getNumber());
+        out.writeInt(pooled.length);
+        for (int mailItem : pooled) out.writeInt(mailStore.getNumber(mailItem));
+
+        long[] delivered = delivery.getDelivered().toLongArray();
+        out.writeInt(delivered.length);
+        for (long word : delivered) out.writeLong(word);
+        out.writeDouble(delivery.getTotal_delay());
+
+        String[] types = Arrays.stream(robots).map(Robot::getRobotType).distinct().toArray(String[]::new);
+        out.writeInt(types.length);
+        for (String type : types) {
+            out.writeUTF(type);
+            out.writeInt(context.getRobotTypeStats(type).getTotalTimeOperated());
+        }
+
+        ByteArrayOutputStream fees = new ByteArrayOutputStream();
+        CachingChargeHandlerAdapter feeCache = feeCache(context);
+        if (feeCache != null) {
+            feeCache.writeTo(new DataOutputStream(fees));
+        }
+        out.writeInt(fees.size());
+        fees.writeTo(out);
+
+        ByteArrayOutputStream batching = new ByteArrayOutputStream();
+        BatchingDispatchPolicy batchingPolicy = batching(automail);
+        if (batchingPolicy != null) {
+            batchingPolicy.writeTo(new DataOutputStream(batching), robots);
+        }
+        out.writeInt(batching.size());
+        batching.writeTo(out);
+
+        out.writeInt((int) crc.getValue());
+        out.flush();
+    }
+
+    /**
+     * @return the number of the item with the given handle, or MailStore.NONE for none
+     */
+    private static int number(MailStore mailStore, int mailItem) {
+        return mailItem == MailStore.NONE ? MailStore.NONE : mailStore.getNumber(mailItem);
+    }
+
+    private static void writeItem(DataOutputStream out, MailStore mailStore, int mailItem) throws IOException {
+        out.writeInt(mailStore.getNumber(mailItem));
+        out.writeInt(mailStore.getDestFloor(mailItem));
+        out.writeInt(mailStore.getArrivalTime(mailItem));
+        out.writeInt(mailStore.getWeight(mailItem));
+        out.writeInt(mailStore.getPriorityLevel(mailItem));
+    }
+
+    /**
+     * Puts a run that has not yet started into the state held by a snapshot file. The run carries on from the
+     * tick after the snapshot's.
+     * @param path the snapshot file
+     * @param seed the run's random seed, or null if it has none, which must be the one the snapshot was taken with
+     * @return the time of the tick the snapshot was taken at
+     * @throws IOException if the file cannot be read or is not an intact snapshot
+     * @throws IllegalArgumentException if the snapshot was taken of a run with a different seed, mail or fleet
+     */
+    public static int restore(Path path, SimulationContext context, Automail automail, ReportDelivery delivery,
+                              MailSource mailSource, Integer seed) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            return restore(in, context, automail, delivery, mailSource, seed, false);
+        }
+    }
+
+    /**
+     * Puts a run that has not yet started into the state held by a snapshot. The run carries on from the tick
+     * after the snapshot's.
+     *
+     * If the fleet may differ, the n-th robot of a type takes the place of the n-th robot of that type in the
+     * snapshot. A robot with no counterpart in the snapshot starts afresh in the mailroom, and the mail carried
+     * by a robot in the snapshot with no counterpart in the run goes back into the pool.
+     * @param stream the snapshot
+     * @param context the simulation run to restore
+     * @param automail the robots and MailPool to restore
+     * @param delivery the record of delivered mail to restore
+     * @param mailSource the source of the run's mail, which skips the mail that arrived before the snapshot
+     * @param seed the run's random seed, or null if it has none, which must be the one the snapshot was taken with
+     * @param fleetMayDiffer whether the run may have other robots than the one the snapshot was taken of
+     * @return the time of the tick the snapshot was taken at
+     * @throws IOException if the snapshot cannot be read or is not intact
+     * @throws IllegalArgumentException if the snapshot was taken of a run with a different seed, mail or fleet
+     */
+    public static int restore(InputStream stream, SimulationContext context, Automail automail,
+                              ReportDelivery delivery, MailSource mailSource, Integer seed, boolean fleetMayDiffer)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(stream, crc));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a snapshot");
+        }
+        boolean seeded = in.readBoolean();
+        int seedValue = in.readInt();
+        Integer snapshotSeed = seeded ? seedValue : null;
+        if (!Objects.equals(snapshotSeed, seed)) {
+            throw new IllegalArgumentException("Snapshot was taken with seed " + snapshotSeed + ", not " + seed);
+        }
+        int mailCount = in.readInt();
+        if (mailCount != mailSource.getMailCount()) {
+            throw new IllegalArgumentException("Snapshot was taken of a run with " + mailCount + " mail items, not "
+                    + mailSource.getMailCount());
+        }
+        int time = in.readInt();
+        mailSource.discardArrivalsThrough(time);
+
+        MailStore mailStore = context.getMailStore();
+        /** The snapshot refers to mail by number; the handle each item is stored under in this run */
+        Map<Integer, Integer> handles = new HashMap<Integer, Integer>();
+        handles.put(MailStore.NONE, MailStore.NONE);
+        int items = in.readInt();
+        for (int i = 0; i < items; i++) {
+            MailItem mailItem = new MailItem(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            handles.put(mailItem.getNumber(), mailStore.put(mailItem));
+        }
+
+        Robot[] robots = automail.getRobots();
+        int snapshotRobots = in.readInt();
+        if (!fleetMayDiffer && snapshotRobots != robots.length) {
+            throw new IllegalArgumentException("Snapshot was taken of a different fleet");
+        }
+        /** The robot taking the place of each robot in the snapshot, null if there is none */
+        Robot[] counterparts = new Robot[snapshotRobots];
+        Map<String, Integer> ranks = new HashMap<String, Integer>();
+        IntDeque unloaded = new IntDeque();
+        for (int i = 0; i < snapshotRobots; i++) {
+            String type = in.readUTF();
+            RobotState state = RobotState.values()[in.readByte()];
+            int floor = in.readInt();
+            int destination = in.readInt();
+            int deliveryCounter = in.readInt();
+            boolean receivedDispatch = in.readBoolean();
+            int hand = handles.get(in.readInt());
+            int[] tube = new int[in.readInt()];
+            for (int j = 0; j < tube.length; j++) tube[j] = handles.get(in.readInt());
+
+            counterparts[i] = counterpart(robots, type, ranks.merge(type, 1, Integer::sum) - 1);
+            if (counterparts[i] == null || (!fleetMayDiffer && counterparts[i].getNumber() != i)) {
+                if (!fleetMayDiffer) {
+                    throw new IllegalArgumentException("Snapshot was taken of a different fleet");
+                }
+                /** Hand the robot's mail back in the order it would have delivered it */
+                if (hand != MailStore.NONE) unloaded.addLast(hand);
+                for (int j = tube.length - 1; j >= 0; j--) unloaded.addLast(tube[j]);
+                continue;
+            }
+            counterparts[i].restore(state, floor, destination, deliveryCounter, receivedDispatch, hand, tube, time);
+        }
+        MailPool mailPool = automail.getMailPool();
+        int waiting = in.readInt();
+        for (int i = 0; i < waiting; i++) {
+            Robot robot = counterparts[in.readInt()];
+            if (robot != null) mailPool.registerWaiting(robot);
+        }
+        int pooled = in.readInt();
+        for (int i = 0; i < pooled; i++) mailPool.addToPool(handles.get(in.readInt()));
+        for (int i = 0; i < unloaded.size(); i++) mailPool.addToPool(unloaded.get(i));
+
+        long[] delivered = new long[in.readInt()];
+        for (int i = 0; i < delivered.length; i++) delivered[i] = in.readLong();
+        delivery.restore(BitSet.valueOf(delivered), in.readDouble());
+
+        int types = in.readInt();
+        for (int i = 0; i < types; i++) {
+            String type = in.readUTF();
+            context.getRobotTypeStats(type).restoreTimeOperated(in.readInt());
+        }
+
+        byte[] fees = new byte[in.readInt()];
+        in.readFully(fees);
+        CachingChargeHandlerAdapter feeCache = feeCache(context);
+        if (fees.length > 0 && feeCache != null) {
+            feeCache.readFrom(new DataInputStream(new ByteArrayInputStream(fees)));
+        }
+
+        byte[] batching = new byte[in.readInt()];
+        in.readFully(batching);
+        BatchingDispatchPolicy batchingPolicy = batching(automail);
+        if (batching.length > 0 && batchingPolicy != null) {
+            batchingPolicy.readFrom(new DataInputStream(new ByteArrayInputStream(batching)), counterparts);
+        }
+
+        int expected = (int) crc.getValue();
+        if (in.readInt() != expected) {
+            throw new IOException("Snapshot is corrupt");
+        }
+        context.getClock().Advance(time + 1 - context.getClock().Time());
+        return time;
+    }
+
+    /**
+     * @return the rank-th robot of the type, or null if there are not that many
+     */
+    private static Robot counterpart(Robot[] robots, String type, int rank) {
+        for (Robot robot : robots) {
+            if (robot.getRobotType().equals(type) && rank-- == 0) {
+                return robot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the run's fee cache, or null if fees are not cached
+     */
+    private static CachingChargeHandlerAdapter feeCache(SimulationContext context) throws IOException {
+        try {
+            return context.getFeeCache();
+        } catch (Exception e) {
+            throw new IOException("Unable to set up fee lookups", e);
+        }
+    }
+
+    /**
+     * @return the run's batching policy, or null if robots are never held
+     */
+    private static BatchingDispatchPolicy batching(Automail automail) {
+        DispatchPolicy policy = automail.getMailPool().getDispatchPolicy();
+        return policy instanceof BatchingDispatchPolicy ? (BatchingDispatchPolicy) policy : null;
+    }
+
+    public void mailArrived(int time, MailItem mailItem) {
+        delegate.mailArrived(time, mailItem);
+    }
+
+    public void stateChanged(int time, Robot robot, RobotState from, RobotState to) {
+        delegate.stateChanged(time, robot, from, to);
+    }
+
+    public void deliveryStarted(int time, Robot robot, MailItem mailItem) {
+        delegate.deliveryStarted(time, robot, mailItem);
+    }
+
+    public void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge) {
+        delegate.delivered(time, robot, deliveredCount, mailItem, charge);
+    }
+
+    public void holdChanged(int time, Robot robot, int heldSince) {
+        delegate.holdChanged(time, robot, heldSince);
+    }
+
+    /**
+     * Writes a snapshot if one is due
+     */
+    public void tickCompleted(int time) {
+        delegate.tickCompleted(time);
+        if (time < nextSnapshot) {
+            return;
+        }
+        nextSnapshot = (time / interval + 1) * interval;
+        try {
+            write(Paths.get(String.format(file, time)), context, automail, delivery, mailSource, seed);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write snapshot", e);
+        }
+    }
+
+    public boolean needsDetails() {
+        return delegate.needsDetails();
+    }
+
+    public void flush() {
+        delegate.flush();
+    }
+
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,70 @@
+package simulation;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Formatter;
+
+import automail.Charge;
+import automail.MailItem;
+import automail.Robot;
+import automail.Robot.RobotState;
+
+/**
+ * Writes simulation events in the text format of the simulation log
+ */
+public class TextEventSink implements SimulationEventSink {
+
+    private final Formatter formatter;
+
+    /**
+     * @param out where the log is written, it is not closed by the sink
+     */
+    public TextEventSink(OutputStream out) {
+        this.formatter = new Formatter(new BufferedWriter(new OutputStreamWriter(out)));
+    }
+
+    public void mailArrived(int time, MailItem mailItem) {
+        formatter.format("T: %3d > new addToPool [%s]%n", time, mailItem.toString());
+    }
+
+    public void stateChanged(int time, Robot robot, RobotState from, RobotState to) {
+        stateChanged(time, robot.getId(), robot.getCurrentTubeLength(), from, to);
+    }
+
+    void stateChanged(int time, String robotId, int tubeLength, RobotState from, RobotState to) {
+        formatter.format("T: %3d > %7s changed from %s to %s%n", time, idTube(robotId, tubeLength), from, to);
+    }
+
+    public void deliveryStarted(int time, Robot robot, MailItem mailItem) {
+        deliveryStarted(time, robot.getId(), robot.getCurrentTubeLength(), mailItem);
+    }
+
+    void deliveryStarted(int time, String robotId, int tubeLength, MailItem mailItem) {
+        formatter.format("T: %3d > %7s-> [%s]%n", time, idTube(robotId, tubeLength), mailItem.toString());
+    }
+
+    public void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge) {
+        delivered(time, robot.getId(), robot.getCurrentTubeLength(), deliveredCount, mailItem, charge);
+    }
+
+    void delivered(int time, String robotId, int tubeLength, int deliveredCount, MailItem mailItem, Charge charge) {
+        formatter.format("T: %3d > %7s-> Delivered(%4d) [%s%s]%n", time, idTube(robotId, tubeLength), deliveredCount,
+                mailItem.toString(), charge == null ? "" : charge.toSummaryString());
+    }
+
+    public void flush() {
+        formatter.flush();
+    }
+
+    public void close() {
+        formatter.flush();
+    }
+
+    /**
+     * @return the robot's id and tube length as shown by Robot.getIdTube()
+     */
+    private static String idTube(String robotId, int tubeLength) {
+        return String.format("%s(%1d)", robotId, tubeLength);
+    }
+}
@@ -0,0 +1,345 @@
+package simulation;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import automail.Automail;
+import automail.Charge;
+import automail.ChargeHandlerAdapter;
+import automail.MailItem;
+import automail.Robot;
+import automail.Robot.RobotState;
+import util.Configuration;
+import util.LatencyHistogram;
+
+/**
+ * Times the phases of each tick with System.nanoTime(): mail arriving, loading robots, moving them (parallel
+ * engine only) and each robot's operate(), with totals per robot type. Fee lookups and event reporting, which
+ * includes the log, journal and snapshots, happen within those phases and are timed as well, by wrapping the
+ * fee lookups and the run's event sink. Every phase's time per tick is counted in a LatencyHistogram.
+ *
+ * A summary of the histograms is printed to standard error every summaryInterval ticks and when the run's event
+ * sink is closed, and a tick taking longer than the slow tick threshold is printed there with its breakdown.
+ *
+ * The profiler can be switched on or off from any thread while the run goes. It takes effect from the next
+ * tick; while it is off, each timing point costs a field read and a branch.
+ */
+public class TickProfiler implements SimulationEventSink {
+
+    /** The timed parts of a tick. FEES and EVENTS happen within the other phases and are counted in them too */
+    public enum Phase { ARRIVALS, LOADING, MOVING, OPERATING, FEES, EVENTS }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private volatile boolean enabled;
+    /** Whether the current tick is being timed, i.e. whether the profiler was enabled when it began */
+    private boolean active;
+    private final long slowTickNanos;
+    private final int summaryInterval;
+    private final PrintStream out;
+
+    private SimulationEventSink delegate;
+    /** The robot types in the run, and the index in it of the type of each robot by number */
+    private String[] types;
+    private int[] typeOf;
+
+    private long tickStart;
+    private final long[] phaseNanos;
+    private long[] typeNanos;
+    /** The phases that have been timed at least once, which are the ones reported */
+    private final boolean[] phaseSeen;
+
+    private final LatencyHistogram tickHistogram;
+    private final LatencyHistogram[] phaseHistograms;
+    /** The time of each robot's operate(), by robot type */
+    private LatencyHistogram[] typeHistograms;
+    private long slowTicks;
+    private int nextSummary;
+    private int lastTick;
+
+    /**
+     * @param enabled whether to time ticks from the start of the run
+     * @param slowTickNanos the time above which a tick is reported as slow
+     * @param summaryInterval the number of ticks between summaries, 0 for a summary only at the end
+     * @param out where the summaries and slow ticks are printed
+     */
+    public TickProfiler(boolean enabled, long slowTickNanos, int summaryInterval, PrintStream out) {
+        this.enabled = enabled;
+        this.slowTickNanos = slowTickNanos;
+        this.summaryInterval = summaryInterval;
+        this.out = out;
+        this.delegate = SimulationEventSink.NONE;
+        this.types = new String[0];
+        this.typeOf = new int[0];
+        this.phaseNanos = new long[PHASES.length];
+        this.typeNanos = new long[0];
+        this.phaseSeen = new boolean[PHASES.length];
+        this.tickHistogram = new LatencyHistogram();
+        this.phaseHistograms = new LatencyHistogram[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) phaseHistograms[i] = new LatencyHistogram();
+        this.typeHistograms = new LatencyHistogram[0];
+        this.nextSummary = summaryInterval;
+    }
+
+    /**
+     * @return a profiler set up by the Tick_Profile properties
+     */
+    public static TickProfiler fromConfiguration(Configuration configuration) {
+        return new TickProfiler(Boolean.parseBoolean(configuration.getProperty(Configuration.TICK_PROFILE_KEY)),
+                Long.parseLong(configuration.getProperty(Configuration.TICK_PROFILE_SLOW_MICROS_KEY)) * 1000,
+                Integer.parseInt(configuration.getProperty(Configuration.TICK_PROFILE_INTERVAL_KEY)), System.err);
+    }
+
+    /**
+     * Starts timing the events of a run and the operate() of its robots. Must be called once the run's event
+     * sink is otherwise complete, as the profiler wraps it.
+     * @param automail the robots of the run
+     */
+    public void install(Automail automail) {
+        Robot[] robots = automail.getRobots();
+        types = Arrays.stream(robots).map(Robot::getRobotType).distinct().toArray(String[]::new);
+        typeOf = new int[robots.length];
+        for (Robot robot : robots) typeOf[robot.getNumber()] = Arrays.asList(types).indexOf(robot.getRobotType());
+        typeNanos = new long[types.length];
+        typeHistograms = new LatencyHistogram[types.length];
+        for (int i = 0; i < types.length; i++) typeHistograms[i] = new LatencyHistogram();
+        SimulationContext context = automail.getContext();
+        delegate = context.getEventSink();
+        context.setEventSink(this);
+    }
+
+    /**
+     * @return a ChargeHandlerAdapter whose lookups are timed as FEES
+     */
+    public ChargeHandlerAdapter timed(ChargeHandlerAdapter chargeHandlerAdapter) {
+        return new TimedChargeHandlerAdapter(chargeHandlerAdapter);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches timing on or off from the next tick. Safe to call from any thread.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts a tick
+     * @return the time to pass to the first end() or robotOperated(), 0 if the tick is not timed
+     */
+    public long begin() {
+        active = enabled;
+        if (!active) {
+            return 0;
+        }
+        Arrays.fill(phaseNanos, 0);
+        Arrays.fill(typeNanos, 0);
+        tickStart = System.nanoTime();
+        return tickStart;
+    }
+
+    /**
+     * @return the current time if the tick is timed, otherwise 0
+     */
+    public long mark() {
+        return active ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Ends a phase of the tick
+     * @param start the time the phase started, as returned by begin(), mark() or the last end()
+     * @return the current time, which starts the next phase
+     */
+    public long end(Phase phase, long start) {
+        if (!active) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - start;
+        phaseSeen[phase.ordinal()] = true;
+        return now;
+    }
+
+    /**
+     * Ends a robot's operate() within the OPERATING phase
+     * @param start the time operate() was called
+     * @return the current time, which starts the next robot's operate()
+     */
+    public long robotOperated(Robot robot, long start) {
+        if (!active) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        int type = typeOf[robot.getNumber()];
+        typeNanos[type] += now - start;
+        typeHistograms[type].record(now - start);
+        phaseNanos[Phase.OPERATING.ordinal()] += now - start;
+        phaseSeen[Phase.OPERATING.ordinal()] = true;
+        return now;
+    }
+
+    public void mailArrived(int time, MailItem mailItem) {
+        long start = mark();
+        delegate.mailArrived(time, mailItem);
+        end(Phase.EVENTS, start);
+    }
+
+    public void stateChanged(int time, Robot robot, RobotState from, RobotState to) {
+        long start = mark();
+        delegate.stateChanged(time, robot, from, to);
+        end(Phase.EVENTS, start);
+    }
+
+    public void deliveryStarted(int time, Robot robot, MailItem mailItem) {
+        long start = mark();
+        delegate.deliveryStarted(time, robot, mailItem);
+        end(Phase.EVENTS, start);
+    }
+
+    public void delivered(int time, Robot robot, int deliveredCount, MailItem mailItem, Charge charge) {
+        long start = mark();
+        delegate.delivered(time, robot, deliveredCount, mailItem, charge);
+        end(Phase.EVENTS, start);
+    }
+
+    public void holdChanged(int time, Robot robot, int heldSince) {
+        long start = mark();
+        delegate.holdChanged(time, robot, heldSince);
+        end(Phase.EVENTS, start);
+    }
+
+    /**
+     * Ends the tick, counting its phases and reporting it if it was slow
+     */
+    public void tickCompleted(int time) {
+        long start = mark();
+        delegate.tickCompleted(time);
+        if (!active) {
+            return;
+        }
+        long now = end(Phase.EVENTS, start);
+        active = false;
+        lastTick = time;
+
+        long tickNanos = now - tickStart;
+        tickHistogram.record(tickNanos);
+        for (int i = 0; i < PHASES.length; i++) {
+            if (phaseSeen[i]) phaseHistograms[i].record(phaseNanos[i]);
+        }
+        if (tickNanos > slowTickNanos) {
+            slowTicks++;
+            printSlowTick(time, tickNanos);
+        }
+        if (summaryInterval > 0 && time >= nextSummary) {
+            nextSummary = (time / summaryInterval + 1) * summaryInterval;
+            printSummary(time);
+        }
+    }
+
+    private void printSlowTick(int time, long tickNanos) {
+        StringBuilder line = new StringBuilder(String.format("Slow tick T: %d | %.1fus", time, tickNanos / 1e3));
+        for (int i = 0; i < PHASES.length; i++) {
+            if (!phaseSeen[i]) continue;
+            line.append(String.format(" | %s %.1f", PHASES[i].name().toLowerCase(), phaseNanos[i] / 1e3));
+            if (PHASES[i] == Phase.OPERATING && types.length > 0) {
+                line.append(" (");
+                for (int t = 0; t < types.length; t++) {
+                    line.append(String.format("%s%s %.1f", t == 0 ? "" : ", ", types[t], typeNanos[t] / 1e3));
+                }
+                line.append(")");
+            }
+        }
+        out.println(line);
+    }
+
+    /**
+     * Prints the time per tick of each phase so far, and of each robot type's operate() calls, in microseconds
+     * @param time the clock time
+     */
+    public void printSummary(int time) {
+        out.printf("Tick profile to T: %d | ticks %d | slow %d%n", time, tickHistogram.getCount(), slowTicks);
+        out.printf("  %-12s %9s %9s %9s %9s %9s %9s%n", "us", "count", "mean", "p50", "p90", "p99", "max");
+        printHistogram("tick", tickHistogram);
+        for (int i = 0; i < PHASES.length; i++) {
+            if (phaseSeen[i]) printHistogram(PHASES[i].name().toLowerCase(), phaseHistograms[i]);
+        }
+        for (int t = 0; t < types.length; t++) {
+            printHistogram(types[t] + " operate", typeHistograms[t]);
+        }
+    }
+
+    private void printHistogram(String name, LatencyHistogram histogram) {
+        out.printf("  %-12s %9d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, histogram.getCount(),
+                histogram.getMean() / 1e3, histogram.getValueAtPercentile(50) / 1e3,
+                histogram.getValueAtPercentile(90) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getMax() / 1e3);
+    }
+
+    public boolean needsDetails() {
+        return delegate.needsDetails();
+    }
+
+    public void flush() {
+        delegate.flush();
+    }
+
+    /**
+     * Prints a final summary if the profiler is on, then closes the wrapped sink
+     */
+    public void close() {
+        delegate.flush();
+        if (enabled && tickHistogram.getCount() > 0) {
+            printSummary(lastTick);
+        }
+        delegate.close();
+    }
+
+    /**
+     * Times the lookups of another ChargeHandlerAdapter as FEES
+     */
+    private class TimedChargeHandlerAdapter implements ChargeHandlerAdapter {
+
+        private final ChargeHandlerAdapter chargeHandlerAdapter;
+
+        TimedChargeHandlerAdapter(ChargeHandlerAdapter chargeHandlerAdapter) {
+            this.chargeHandlerAdapter = chargeHandlerAdapter;
+        }
+
+        public double calculateServiceFee(int floor) {
+            long start = mark();
+            double serviceFee = chargeHandlerAdapter.calculateServiceFee(floor);
+            end(Phase.FEES, start);
+            return serviceFee;
+        }
+
+        public void prefetchServiceFee(int floor) {
+            long start = mark();
+            chargeHandlerAdapter.prefetchServiceFee(floor);
+            end(Phase.FEES, start);
+        }
+
+        public double calculateMaintenanceFee(double avgOperatingTime, double typeBasedRate) {
+            long start = mark();
+            double maintenanceFee = chargeHandlerAdapter.calculateMaintenanceFee(avgOperatingTime, typeBasedRate);
+            end(Phase.FEES, start);
+            return maintenanceFee;
+        }
+
+        public Charge calculateCharge(int floor, double avgOperatingTime, double typeBasedRate) {
+            long start = mark();
+            Charge charge = chargeHandlerAdapter.calculateCharge(floor, avgOperatingTime, typeBasedRate);
+            end(Phase.FEES, start);
+            return charge;
+        }
+
+        public String formSummaryString(int floor, double avgOperatingTime, double typeBasedRate) {
+            long start = mark();
+            String summary = chargeHandlerAdapter.formSummaryString(floor, avgOperatingTime, typeBasedRate);
+            end(Phase.FEES, start);
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package simulation;
+
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import automail.Building;
+import automail.MailPool;
+
+/**
+ * Replays recorded mail arrivals from a trace file. The file is memory-mapped a segment at a time and read
+ * sequentially as the clock advances, so only the mail arriving in the current tick is ever materialised.
+ *
+ * Records hold the arrival tick, destination floor, weight and priority of a mail item, in non-decreasing order
+ * of arrival tick. Two formats are read:
+ * <ul>
+ * <li>binary: the int MAGIC, the int format VERSION and the int record count, followed by one record of four
+ * ints each, big-endian</li>
+ * <li>CSV (file name ending in .csv): one record per line as arrival,destination,weight,priority. Lines that
+ * do not start with a digit, such as a header or comments, are skipped</li>
+ * </ul>
+ */
+public class TraceMailSource implements MailSource {
+
+    public static final int MAGIC = 0x414D5452; // "AMTR"
+    public static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int RECORD_BYTES = 16;
+    /** The most bytes mapped at once */
+    private static final long SEGMENT_BYTES = 1L << 28;
+
+    private final SimulationContext context;
+    private final MailPool mailPool;
+    private final TraceReader reader;
+    private final int mailCount;
+    private final int firstMailId;
+    private int mailRead;
+    /** Whether the reader holds a record that has not been added to the pool yet */
+    private boolean pending;
+
+    private TraceMailSource(SimulationContext context, MailPool mailPool, TraceReader reader) throws IOException {
+        this.context = context;
+        this.mailPool = mailPool;
+        this.reader = reader;
+        this.mailCount = reader.count();
+        this.firstMailId = context.reserveMailIds(mailCount);
+        this.mailRead = 0;
+        this.pending = readNext();
+    }
+
+    /**
+     * Opens a trace file
+     * @param context the simulation run the mail is replayed into
+     * @param mailPool where mail items go on arrival
+     * @param fileName the trace file, read as CSV if its name ends in .csv and as binary otherwise
+     * @return the mail source
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public static TraceMailSource open(SimulationContext context, MailPool mailPool, String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        TraceReader reader = fileName.toLowerCase().endsWith(".csv") ? new CsvReader(channel) : new BinaryReader(channel);
+        return new TraceMailSource(context, mailPool, reader);
+    }
+
+    public int getMailCount() {
+        return mailCount;
+    }
+
+    public int nextArrivalTime() {
+        return pending ? reader.arrival : Integer.MAX_VALUE;
+    }
+
+    public void addToMailPool() {
+        int time = context.getClock().Time();
+        while (pending && reader.arrival == time) {
+            int mailItem = context.getMailStore().put(firstMailId + mailRead, reader.destination, reader.arrival,
+                    reader.weight, reader.priority);
+            mailRead++;
+            context.getEventSink().mailArrived(time, context.eventItem(mailItem));
+            mailPool.addToPool(mailItem);
+            pending = readNext();
+        }
+    }
+
+    public void discardArrivalsThrough(int time) {
+        while (pending && reader.arrival <= time) {
+            mailRead++;
+            pending = readNext();
+        }
+    }
+
+    /**
+     * Reads and checks the next record
+     * @return false if the trace is exhausted
+     */
+    private boolean readNext() {
+        int previousArrival = reader.arrival;
+        boolean read;
+        try {
+            read = mailRead < mailCount && reader.next();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read trace", e);
+        }
+        if (!read) {
+            reader.close();
+            return false;
+        }
+        Building building = context.getBuilding();
+        if (reader.arrival < previousArrival || reader.arrival < context.getClock().Time()) {
+            throw new IllegalStateException("Trace record " + mailRead + " arrives out of order at " + reader.arrival);
+        }
+        if (reader.destination < building.getLowestFloor()
+                || reader.destination >= building.getLowestFloor() + building.getnFloors()) {
+            throw new IllegalStateException("Trace record " + mailRead + " has invalid floor " + reader.destination);
+        }
+        if (reader.priority < 0) {
+            throw new IllegalStateException("Trace record " + mailRead + " has negative priority " + reader.priority);
+        }
+        return true;
+    }
+
+    /**
+     * Converts a CSV trace into the binary format
+     * Usage: TraceMailSource input.csv output.trace
+     */
+    public static void main(String[] args) throws IOException {
+        CsvReader reader = new CsvReader(FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[1])))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(reader.count());
+            while (reader.next()) {
+                out.writeInt(reader.arrival);
+                out.writeInt(reader.destination);
+                out.writeInt(reader.weight);
+                out.writeInt(reader.priority);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the records of a trace file in order, exposing the current record in its fields
+     */
+    private static abstract class TraceReader {
+        protected final FileChannel channel;
+        protected MappedByteBuffer segment;
+        /** File position of the start of the mapped segment */
+        protected long segmentStart;
+
+        int arrival = Integer.MIN_VALUE;
+        int destination;
+        int weight;
+        int priority;
+
+        TraceReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Maps the segment starting at the given file position
+         */
+        protected void map(long position) throws IOException {
+            segmentStart = position;
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(SEGMENT_BYTES, channel.size() - position));
+        }
+
+        /**
+         * @return the number of records in the trace
+         */
+        abstract int count() throws IOException;
+
+        /**
+         * Moves to the next record
+         * @return false if there are no more records
+         */
+        abstract boolean next() throws IOException;
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            segment = null;
+        }
+    }
+
+    private static class BinaryReader extends TraceReader {
+        private final int count;
+
+        BinaryReader(FileChannel channel) throws IOException {
+            super(channel);
+            map(0);
+            if (segment.remaining() < HEADER_BYTES || segment.getInt() != MAGIC) {
+                throw new IOException("Not a binary mail trace");
+            }
+            int version = segment.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported mail trace version " + version);
+            }
+            count = segment.getInt();
+            if (channel.size() < HEADER_BYTES + (long) count * RECORD_BYTES) {
+                throw new IOException("Mail trace is truncated");
+            }
+        }
+
+        int count() {
+            return count;
+        }
+
+        boolean next() throws IOException {
+            if (segment.remaining() < RECORD_BYTES) {
+                long position = segmentStart + segment.position();
+                if (position + RECORD_BYTES > channel.size()) {
+                    return false;
+                }
+                map(position);
+            }
+            arrival = segment.getInt();
+            destination = segment.getInt();
+            weight = segment.getInt();
+            priority = segment.getInt();
+            return true;
+        }
+    }
+
+    private static class CsvReader extends TraceReader {
+        private final int[] fields = new int[4];
+
+        CsvReader(FileChannel channel) throws IOException {
+            super(channel);
+            map(0);
+        }
+
+        /**
+         * Counts the records with one pass over the file
+         */
+        int count() throws IOException {
+            int count = 0;
+            boolean lineStart = true;
+            for (long position = 0; position < channel.size(); position += SEGMENT_BYTES) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(SEGMENT_BYTES, channel.size() - position));
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (lineStart && b >= '0' && b <= '9') {
+                        count++;
+                    }
+                    lineStart = b == '\n';
+                }
+            }
+            return count;
+        }
+
+        boolean next() throws IOException {
+            while (true) {
+                int lineStart = segment.position();
+                int end = findLineEnd(lineStart);
+                if (end < 0) {
+                    long position = segmentStart + lineStart;
+                    if (position >= channel.size()) {
+                        return false;
+                    }
+                    if (segmentStart + segment.limit() < channel.size() && lineStart > 0) {
+                        /** The line runs past the mapped segment, so map again from its start */
+                        map(position);
+                        continue;
+                    }
+                    end = segment.limit();
+                }
+                segment.position(Math.min(end + 1, segment.limit()));
+                if (end > lineStart && isDigit(segment.get(lineStart))) {
+                    parseFields(lineStart, end);
+                    arrival = fields[0];
+                    destination = fields[1];
+                    weight = fields[2];
+                    priority = fields[3];
+                    return true;
+                }
+            }
+        }
+
+        private int findLineEnd(int from) {
+            for (int i = from; i < segment.limit(); i++) {
+                if (segment.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void parseFields(int from, int to) throws IOException {
+            int field = 0;
+            int value = 0;
+            boolean negative = false;
+            for (int i = from; i < to; i++) {
+                byte b = segment.get(i);
+                if (isDigit(b)) {
+                    value = value * 10 + (b - '0');
+                } else if (b == '-') {
+                    negative = true;
+                } else if (b == ',') {
+                    if (field < fields.length) fields[field] = negative ? -value : value;
+                    field++;
+                    value = 0;
+                    negative = false;
+                }
+            }
+            if (field < fields.length) fields[field] = negative ? -value : value;
+            if (field != fields.length - 1) {
+                throw new IOException("Mail trace line at byte " + (segmentStart + from) + " does not have 4 fields");
+            }
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package util;
 
-import simulation.Clock;
-
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Properties;
@@ -13,11 +11,42 @@ public class Configuration extends Properties
     public static final String REGULAR_ROBOTS_KEY = "Regular_Robots";
     public static final String FAST_ROBOTS_KEY = "Fast_Robots";
     public static final String BULK_ROBOTS_KEY = "Bulk_Robots";
+    public static final String ROBOT_TYPES_KEY = "Robot_Types";
 
     public static final String MAIL_TO_CREATE_KEY = "Mail_to_Create";
     public static final String MAIL_MAX_WEIGHT_KEY = "Mail_Max_Weight";
     public static final String MAIL_RECEIVING_LENGTH_KEY = "Mail_Receiving_Length";
     public static final String FEE_CHARGING_KEY = "Fee_Charging";
+    public static final String FEE_CACHE_TTL_KEY = "Fee_Cache_TTL";
+    public static final String FEE_CACHE_MAX_STALE_KEY = "Fee_Cache_Max_Stale";
+    public static final String FEE_CACHE_SIZE_KEY = "Fee_Cache_Size";
+    public static final String MAIL_STREAM_CHUNK_KEY = "Mail_Stream_Chunk";
+    public static final String MAIL_SOURCE_KEY = "Mail_Source";
+    public static final String TRACE_FILE_KEY = "Trace_File";
+    public static final String JOURNAL_FILE_KEY = "Journal_File";
+    public static final String JOURNAL_GROUP_TICKS_KEY = "Journal_Group_Ticks";
+    public static final String JOURNAL_RECOVER_KEY = "Journal_Recover";
+    public static final String SNAPSHOT_FILE_KEY = "Snapshot_File";
+    public static final String SNAPSHOT_INTERVAL_KEY = "Snapshot_Interval";
+    public static final String SNAPSHOT_RESUME_KEY = "Snapshot_Resume";
+    public static final String TICK_PROFILE_KEY = "Tick_Profile";
+    public static final String TICK_PROFILE_INTERVAL_KEY = "Tick_Profile_Interval";
+    public static final String TICK_PROFILE_SLOW_MICROS_KEY = "Tick_Profile_Slow_Micros";
+    public static final String METRICS_FILE_KEY = "Metrics_File";
+    public static final String METRICS_INTERVAL_KEY = "Metrics_Interval";
+
+    public static final String SIMULATION_ENGINE_KEY = "Simulation_Engine";
+    public static final String EVENT_LOG_KEY = "Event_Log";
+    public static final String FLEET_LAYOUT_KEY = "Fleet_Layout";
+    public static final String DISPATCH_POLICY_KEY = "Dispatch_Policy";
+    public static final String MAIL_POOL_ORDER_KEY = "Mail_Pool_Order";
+    public static final String PRIORITY_WEIGHTED_DELAY_KEY = "Priority_Weighted_Delay";
+    public static final String MAIL_POOL_KEY = "Mail_Pool";
+    public static final String ROUTE_PLANNER_KEY = "Route_Planner";
+    public static final String BATCH_MAX_WAIT_KEY = "Batch_Max_Wait";
+    public static final String BATCH_MIN_FILL_KEY = "Batch_Min_Fill";
+    public static final String BATCH_FLOOR_SPREAD_KEY = "Batch_Floor_Spread";
+    public static final String BATCH_ROBOT_TYPES_KEY = "Batch_Robot_Types";
 
     public static final String N_FLOORS_KEY = "Floors";
     public static final String LOWEST_FLOOR_KEY = "Lowest_Floor";
@@ -25,6 +54,19 @@ public class Configuration extends Properties
 
     private static Configuration configuration = null;
 
+    public Configuration()
+    {
+    }
+
+    /**
+     * Creates a configuration that falls back to another for any property not set on it
+     * @param defaults the configuration to fall back to
+     */
+    public Configuration(Configuration defaults)
+    {
+        super(defaults);
+    }
+
     public static Configuration getInstance()
     {
         if(configuration == null)
@@ -41,14 +83,85 @@ public class Configuration extends Properties
         return configuration;
     }
 
-    private void setUp() throws IOException 
+    /**
+     * @return a configuration holding only the default properties, without reading automail.properties
+     */
+    public static Configuration withDefaults()
+    {
+        Configuration defaults = new Configuration();
+        defaults.setDefaults();
+        return defaults;
+    }
+
+    /**
+     * @param robotType the name of a robot type, e.g. Regular
+     * @return the property defining the type, e.g. Regular_Robot
+     */
+    public static String robotSpecKey(String robotType)
+    {
+        return robotType + "_Robot";
+    }
+
+    /**
+     * @param robotType the name of a robot type, e.g. Regular
+     * @return the property holding the number of robots of the type, e.g. Regular_Robots
+     */
+    public static String robotCountKey(String robotType)
+    {
+        return robotType + "_Robots";
+    }
+
+    /**
+     * @param robotType the name of a robot type, e.g. Regular
+     * @return the number of robots of the type, 0 if not given
+     */
+    public int getRobotCount(String robotType)
+    {
+        return Integer.parseInt(getProperty(robotCountKey(robotType), "0"));
+    }
+
+    private void setDefaults()
     {
-        // Default properties
         setProperty(N_FLOORS_KEY, "10");
         setProperty(LOWEST_FLOOR_KEY, "1");
         setProperty(MAILROOM_LOCATION_FLOOR_KEY, "1");
         setProperty(MAIL_TO_CREATE_KEY, "80");
+        setProperty(ROBOT_TYPES_KEY, "Regular,Fast,Bulk");
         setProperty(FEE_CHARGING_KEY, "false");
+        setProperty(FEE_CACHE_TTL_KEY, "-1");
+        setProperty(FEE_CACHE_MAX_STALE_KEY, "0");
+        setProperty(FEE_CACHE_SIZE_KEY, "1024");
+        setProperty(MAIL_STREAM_CHUNK_KEY, "0");
+        setProperty(MAIL_SOURCE_KEY, "generator");
+        setProperty(SIMULATION_ENGINE_KEY, "tick");
+        setProperty(EVENT_LOG_KEY, "async");
+        setProperty(FLEET_LAYOUT_KEY, "objects");
+        setProperty(DISPATCH_POLICY_KEY, "highest_floor");
+        setProperty(MAIL_POOL_ORDER_KEY, "floor");
+        setProperty(PRIORITY_WEIGHTED_DELAY_KEY, "false");
+        setProperty(MAIL_POOL_KEY, "standard");
+        setProperty(ROUTE_PLANNER_KEY, "none");
+        setProperty(BATCH_MAX_WAIT_KEY, "0");
+        setProperty(BATCH_MIN_FILL_KEY, "5");
+        setProperty(BATCH_FLOOR_SPREAD_KEY, "-1");
+        setProperty(BATCH_ROBOT_TYPES_KEY, "Bulk");
+        setProperty(JOURNAL_FILE_KEY, "");
+        setProperty(JOURNAL_GROUP_TICKS_KEY, "16");
+        setProperty(JOURNAL_RECOVER_KEY, "false");
+        setProperty(SNAPSHOT_FILE_KEY, "");
+        setProperty(SNAPSHOT_INTERVAL_KEY, "0");
+        setProperty(SNAPSHOT_RESUME_KEY, "");
+        setProperty(TICK_PROFILE_KEY, "false");
+        setProperty(TICK_PROFILE_INTERVAL_KEY, "1000");
+        setProperty(TICK_PROFILE_SLOW_MICROS_KEY, "1000");
+        setProperty(METRICS_FILE_KEY, "");
+        setProperty(METRICS_INTERVAL_KEY, "0");
+    }
+
+    private void setUp() throws IOException 
+    {
+        // Default properties
+        setDefaults();
 
         // Read properties
         FileReader inStream = null;
@@ -78,13 +191,12 @@ public class Configuration extends Properties
         System.out.println("#Mail receiving length: " + mail_receiving_length);
 
         // Robots
-        int num_regular_robots = Integer.parseInt(getProperty(REGULAR_ROBOTS_KEY));
-        int num_fast_robots = Integer.parseInt(getProperty(FAST_ROBOTS_KEY));
-        int num_bulk_robots = Integer.parseInt(getProperty(BULK_ROBOTS_KEY));
-        int total_robots = num_regular_robots + num_fast_robots + num_bulk_robots;
-        System.out.println("#RegularRobots: " + num_regular_robots);
-        System.out.println("#FastRobots: " + num_fast_robots);
-        System.out.println("#BulkRobots: " + num_bulk_robots);
+        int total_robots = 0;
+        for (String robot_type : getProperty(ROBOT_TYPES_KEY).split(",")) {
+            int num_robots = getRobotCount(robot_type.trim());
+            total_robots += num_robots;
+            System.out.println("#" + robot_type.trim() + "Robots: " + num_robots);
+        }
         System.out.println("#TotalRobots: " + total_robots);
         assert(total_robots > 0);
 
@@ -0,0 +1,88 @@
+package util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A growable ring buffer of ints, used as a queue of mail item handles without boxing them
+ */
+public class IntDeque {
+
+    private int[] elements;
+    private int head;
+    private int size;
+
+    public IntDeque() {
+        this(8);
+    }
+
+    public IntDeque(int capacity) {
+        elements = new int[Math.max(1, capacity)];
+    }
+
+    public void addLast(int element) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) % elements.length] = element;
+        size++;
+    }
+
+    /**
+     * @return the first element
+     * @throws NoSuchElementException if the deque is empty
+     */
+    public int peekFirst() {
+        if (size == 0) throw new NoSuchElementException();
+        return elements[head];
+    }
+
+    /**
+     * Removes the first element
+     * @return the removed element
+     * @throws NoSuchElementException if the deque is empty
+     */
+    public int pollFirst() {
+        int element = peekFirst();
+        head = (head + 1) % elements.length;
+        size--;
+        return element;
+    }
+
+    /**
+     * @param index the position from the front, 0 for the first element
+     */
+    public int get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(String.valueOf(index));
+        return elements[(head + index) % elements.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int[] grown = new int[elements.length * 2];
+        for (int i = 0; i < size; i++) {
+            grown[i] = elements[(head + i) % elements.length];
+        }
+        elements = grown;
+        head = 0;
+    }
+
+    @Override
+    public String toString() {
+        int[] contents = new int[size];
+        for (int i = 0; i < size; i++) contents[i] = get(i);
+        return Arrays.toString(contents);
+    }
+}
@@ -0,0 +1,112 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Counts recorded values, such as durations in nanoseconds, in the manner of an HDR histogram: each power of two
+ * is split into SUB_BUCKETS equal buckets, so any percentile is reported to within about 1 / SUB_BUCKETS of the
+ * true value whatever its magnitude, and recording is a few shifts and an array increment in a fixed-size array.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+
+    private final long[] counts;
+    private long count;
+    private long total;
+    private long max;
+
+    public LatencyHistogram() {
+        counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    }
+
+    /**
+     * @param value the value to count; negative values are counted as 0
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Counts a value several times, e.g. a level that held for several ticks
+     * @param value the value to count; negative values are counted as 0
+     * @param times the number of times to count it
+     */
+    public void record(long value, long times) {
+        if (times <= 0) return;
+        if (value < 0) value = 0;
+        counts[bucket(value)] += times;
+        count += times;
+        total += value * times;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Values below 2 * SUB_BUCKETS have a bucket each. Above that, a value with its highest bit at position e falls
+     * in one of the SUB_BUCKETS buckets for that power of two, picked by the bits just below the highest.
+     */
+    private static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value that falls in the bucket
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @param percentile the percentage of values, from 0 to 100, that are no greater than the value returned
+     * @return the value at the percentile, rounded up to the top of its bucket but no more than the maximum
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : total / (double) count;
+    }
+
+    /**
+     * Adds the values counted by another histogram to this one
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+}
@@ -0,0 +1,124 @@
+package util;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A set of named metrics, each a family of series told apart by their labels, that can be written out in the
+ * Prometheus text format. Counters and gauges are single values; histograms are written as summaries with the
+ * 50th, 95th and 99th percentiles, the count, the sum and the maximum of the values counted.
+ *
+ * Metrics are looked up by name and labels when they are registered, so callers keep the returned Counter or
+ * LatencyHistogram and update it directly. A registry belongs to the thread of one simulation run.
+ */
+public class MetricsRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    /** A count that only goes up */
+    public static class Counter {
+        private long value;
+
+        public void add(long amount) {
+            value += amount;
+        }
+
+        public long get() {
+            return value;
+        }
+    }
+
+    private static class Family {
+        final String type;
+        final String help;
+        /** Series by their labels, in the order they were registered */
+        final Map<String, Object> series = new LinkedHashMap<String, Object>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<String, Family>();
+
+    /**
+     * @param namesAndValues label names each followed by its value
+     * @return the labels formatted for a series, e.g. type="R",state="WAITING"
+     */
+    public static String labels(Object... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) labels.append(',');
+            labels.append(namesAndValues[i]).append("=\"").append(namesAndValues[i + 1]).append('"');
+        }
+        return labels.toString();
+    }
+
+    /**
+     * @return the counter with the name and labels, registering it if need be
+     */
+    public Counter counter(String name, String help, String labels) {
+        return (Counter) family(name, "counter", help).series.computeIfAbsent(labels, l -> new Counter());
+    }
+
+    /**
+     * @return the histogram with the name and labels, registering it if need be
+     */
+    public LatencyHistogram histogram(String name, String help, String labels) {
+        return (LatencyHistogram) family(name, "summary", help).series.computeIfAbsent(labels,
+                l -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge, whose value is read when the registry is written out
+     */
+    public void gauge(String name, String help, String labels, DoubleSupplier value) {
+        family(name, "gauge", help).series.put(labels, value);
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format
+     */
+    public void writeTo(PrintWriter out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.printf("# HELP %s %s%n", name, family.help);
+            out.printf("# TYPE %s %s%n", name, family.type);
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    out.printf("%s%s %d%n", name, braces(labels), ((Counter) metric).get());
+                } else if (metric instanceof DoubleSupplier) {
+                    out.printf("%s%s %s%n", name, braces(labels), ((DoubleSupplier) metric).getAsDouble());
+                } else {
+                    LatencyHistogram histogram = (LatencyHistogram) metric;
+                    String separator = labels.isEmpty() ? "" : labels + ",";
+                    for (double quantile : QUANTILES) {
+                        out.printf("%s{%squantile=\"%s\"} %d%n", name, separator, quantile,
+                                histogram.getValueAtPercentile(quantile * 100));
+                    }
+                    out.printf("%s_sum%s %d%n", name, braces(labels), histogram.getTotal());
+                    out.printf("%s_count%s %d%n", name, braces(labels), histogram.getCount());
+                    out.printf("%s_max%s %d%n", name, braces(labels), histogram.getMax());
+                }
+            }
+        }
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+}
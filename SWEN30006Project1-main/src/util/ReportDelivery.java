@@ -1,36 +1,49 @@
 package util;
 
-import automail.MailItem;
+import automail.Charge;
+import automail.MailStore;
 import automail.Robot;
 import exceptions.MailAlreadyDeliveredException;
-import simulation.Clock;
 import simulation.IMailDelivery;
+import simulation.SimulationContext;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
 
 public class ReportDelivery implements IMailDelivery {
 
 
-    /**An array list to record mails that have been delivered*/
-    private Set<MailItem> deliveredItems;
-    private static double total_delay = 0;
+    /** The numbers of the delivered mail items */
+    private BitSet delivered;
+    private int deliveredCount;
+    private double total_delay = 0;
+    private final SimulationContext context;
+    private final MailStore mailStore;
+    /** Whether the delay of a delivery is weighted by the item's priority */
+    private final boolean priorityWeighted;
 
-    public ReportDelivery()
+    public ReportDelivery(SimulationContext context)
     {
-        deliveredItems = new HashSet<>();
+        this.context = context;
+        this.mailStore = context.getMailStore();
+        this.priorityWeighted = Boolean.parseBoolean(context.getConfiguration().getProperty(
+                Configuration.PRIORITY_WEIGHTED_DELAY_KEY));
+        delivered = new BitSet();
+        deliveredCount = 0;
     }
 
     /** Confirm the delivery and calculate the total score */
     @Override
-    public void deliver(Robot robot, MailItem deliveryItem, String additionalLog ){
-        if(!deliveredItems.contains(deliveryItem))
+    public void deliver(Robot robot, int deliveryItem, Charge charge){
+        int number = mailStore.getNumber(deliveryItem);
+        if(!delivered.get(number))
         {
-            deliveredItems.add(deliveryItem);
-            System.out.printf("T: %3d > %7s-> Delivered(%4d) [%s%s]%n", Clock.Time(), robot.getIdTube(), deliveredItems.size(), deliveryItem.toString(), additionalLog);
+            delivered.set(number);
+            deliveredCount++;
+            context.getEventSink().delivered(context.getClock().Time(), robot, deliveredCount,
+                    context.eventItem(deliveryItem), charge);
             // Calculate delivery score
-            total_delay += calculateDeliveryDelay(deliveryItem);
+            total_delay += calculateDeliveryDelay(deliveryItem, context.getClock().Time());
+            mailStore.release(deliveryItem);
         }
         else{
             try {
@@ -47,16 +60,53 @@ public class ReportDelivery implements IMailDelivery {
     }
 
     @Override
-    public Set<MailItem> getDeliveredItems() {
-        return Collections.unmodifiableSet(deliveredItems);
+    public int getDeliveredCount() {
+        return deliveredCount;
     }
 
-    private static double calculateDeliveryDelay(MailItem deliveryItem) {
+    @Override
+    public boolean isDelivered(int number) {
+        return delivered.get(number);
+    }
+
+    /**
+     * Records a delivery made earlier in the run, as when recovering from a journal, and releases the item's
+     * handle. Nothing is reported.
+     * @param deliveryItem the handle of the delivered mail item
+     * @param time the clock time it was delivered at
+     */
+    public void restoreDelivered(int deliveryItem, int time) {
+        delivered.set(mailStore.getNumber(deliveryItem));
+        deliveredCount++;
+        total_delay += calculateDeliveryDelay(deliveryItem, time);
+        mailStore.release(deliveryItem);
+    }
+
+    /**
+     * @return the numbers of the delivered mail items
+     */
+    public BitSet getDelivered() {
+        return (BitSet) delivered.clone();
+    }
+
+    /**
+     * Replaces the record of delivered mail with one taken earlier in the run, as when resuming from a snapshot.
+     * Nothing is reported.
+     * @param delivered the numbers of the delivered mail items
+     * @param totalDelay the total delay of those deliveries
+     */
+    public void restore(BitSet delivered, double totalDelay) {
+        this.delivered = (BitSet) delivered.clone();
+        deliveredCount = delivered.cardinality();
+        total_delay = totalDelay;
+    }
+
+    private double calculateDeliveryDelay(int deliveryItem, int time) {
         // Penalty for longer delivery times
         final double penalty = 1.2;
-        double priority_weight = 0;
+        double priority_weight = priorityWeighted ? mailStore.getPriorityLevel(deliveryItem) : 0;
         // Take (delivery time - arrivalTime)**penalty * (1+sqrt(priority_weight))
-        return Math.pow(Clock.Time() - deliveryItem.getArrivalTime(),penalty)*(1+Math.sqrt(priority_weight));
+        return Math.pow(time - mailStore.getArrivalTime(deliveryItem),penalty)*(1+Math.sqrt(priority_weight));
     }
 
 }